@@ -1,56 +1,131 @@
 package application.controller;
 
-import javafx.embed.swing.SwingFXUtils;
+import application.engine.ArgbImage;
+import application.engine.EditLog;
+import application.engine.EffectKernels;
+import application.engine.ImageLoader;
+import application.engine.RenderMonitor;
+import application.engine.RenderQueue;
+import application.engine.TileHistory;
+import application.model.Effect;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.image.*;
 import javafx.stage.FileChooser;
 import javafx.event.ActionEvent;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.List;
 
 public class ImageController {
 
     @FXML private ImageView imageView;
 
     // Sliders & labels for live updates
-    @FXML private Slider brightnessSlider, contrastSlider, blurSlider;
-    @FXML private Label brightnessLabel, contrastLabel, blurLabel;
-
-    // Undo/Redo support
-    private final Stack<Image> undoStack = new Stack<>();
-    private final Stack<Image> redoStack = new Stack<>();
-
-    private Image originalImage;
+    @FXML private Slider brightnessSlider, contrastSlider, blurSlider, pixelateSlider;
+    @FXML private Label brightnessLabel, contrastLabel, blurLabel, pixelateLabel;
+    @FXML private ProgressBar renderProgress;
+
+    // Undo/Redo support: the history is the list of edits with a full image every few steps
+    // (see EditLog); undo and redo replay from the nearest one in the background, and the view
+    // shows one WritableImage that is patched tile by tile
+    private final EditLog log = new EditLog();
+    private WritableImage display;
+    private TileHistory.State shown;
+
+    private TileHistory.State originalState;
+    private RenderQueue renderQueue;
+    // Decodes opened files in the background, showing a subsampled preview until the full image is in
+    private final ImageLoader imageLoader = new ImageLoader();
+
+    // Blur and pixelate slider previews are rendered from the step the drag started on;
+    // the first preview that lands is a new undo step, later ones replace it.
+    private Slider sessionSlider;
+    private EditLog.Plan sessionBase;
+    private boolean sessionCommitted;
+    private boolean syncingSliders;
+
+    // Filters run one after another, each on the step the one before produced. Undo, redo and
+    // reset clicked while a filter runs wait their turn, and so do slider previews (latest only).
+    private final ArrayDeque<Runnable> waitingEdits = new ArrayDeque<>();
+    private Runnable waitingPreview;
+    private boolean editRunning;
 
     // =============================================
     //   CORE IMAGE HANDLING
     // =============================================
 
-    private interface ImageOp { Image apply(Image img); }
+    private void applyEffect(String name) {
+        filterImage(new Effect(name, EffectKernels.categoryOf(name), 1.0));
+    }
+
+    private void filterImage(Effect op) {
+        whenIdle(() -> startFilter(op));
+    }
+
+    private void startFilter(Effect op) {
+        renderQueue.cancel();
+        endSliderSession();
+        if (display == null) return;
+        EditLog.Plan base = log.plan();
+        editRunning = true;
+
+        // Build the current step (usually already built) and render the edit off the FX thread;
+        // the log entry and the tile updates of the display happen together on commit
+        renderQueue.submitEdit(monitor -> render(base.run(monitor), op, monitor), next -> {
+            log.record(op, next);
+            show(next);
+            imageView.setPreserveRatio(true);
+            imageView.setSmooth(true);
+            imageView.setCache(false);
+
+            System.out.println("[Filter Applied]");
+            editDone();
+        }, this::editDone);
+    }
+
+    /** Runs {@code action} now, or after the filters still running or waiting. */
+    private void whenIdle(Runnable action) {
+        if (editRunning) waitingEdits.add(action);
+        else action.run();
+    }
 
-    private void filterImage(ImageOp op) {
-        Image img = imageView.getImage();
-        if (img == null) return;
+    private void editDone() {
+        editRunning = false;
+        while (!editRunning && !waitingEdits.isEmpty()) waitingEdits.poll().run();
+    }
 
-        pushUndo();
-        Image result = op.apply(img);
-        if (result == null) return;
+    private void dropWaitingEdits() {
+        renderQueue.cancelAll();
+        waitingEdits.clear();
+        waitingPreview = null;
+        editRunning = false;
+    }
 
-        imageView.setImage(result);
-        imageView.setPreserveRatio(true);
-        imageView.setSmooth(true);
-        imageView.setCache(false);
+    private static TileHistory.State render(TileHistory.State base, Effect op, RenderMonitor monitor) {
+        return base.derive(EditLog.apply(List.of(op), base.toArgbImage(), monitor));
+    }
 
-        System.out.println("[Filter Applied]");
+    /** Shows the current step of the log, replaying it in the background if it is not built yet. */
+    private void showStep() {
+        EditLog.Plan plan = log.plan();
+        renderQueue.submit(plan::run, state -> {
+            log.remember(plan, state);
+            show(state);
+        });
     }
 
-    private void pushUndo() {
-        if (imageView.getImage() != null)
-            undoStack.push(imageView.getImage());
-        redoStack.clear();
+    /** Brings the display up to {@code state}, writing only the tiles that differ from what it shows. */
+    private void show(TileHistory.State state) {
+        if (display == null || shown == null || (int) display.getWidth() != state.getWidth()
+                || (int) display.getHeight() != state.getHeight()) {
+            display = state.toImage();
+            imageView.setImage(display);
+        } else {
+            state.writeChanges(shown, display.getPixelWriter());
+        }
+        shown = state;
     }
 
     // =============================================
@@ -66,241 +141,181 @@ public class ImageController {
         );
         File file = fileChooser.showOpenDialog(null);
         if (file != null) {
-            originalImage = new Image(file.toURI().toString());
-            imageView.setImage(originalImage);
-            undoStack.clear();
-            redoStack.clear();
+            dropWaitingEdits();
+            endSliderSession();
+            // Edits are ignored (no display) until the full image is in
+            display = null;
+            shown = originalState = null;
+            imageView.setImage(null);
+            imageLoader.load(file, imageView, new ImageLoader.Listener() {
+                @Override
+                public void preview(Image preview) {
+                    imageView.setImage(preview);
+                }
+
+                @Override
+                public void loaded(Image image) {
+                    originalState = TileHistory.State.of(ArgbImage.of(image));
+                    log.reset(originalState);
+                    show(originalState);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    System.err.println("[ImageController] Could not open " + file.getName() + ": " + e);
+                }
+            });
         }
     }
 
     @FXML
     private void handleReset() {
-        if (originalImage != null) {
-            imageView.setImage(originalImage);
-            undoStack.clear();
-            redoStack.clear();
-        }
-        resetSliders();
+        whenIdle(() -> {
+            renderQueue.cancel();
+            endSliderSession();
+            if (originalState != null) {
+                log.reset(originalState);
+                show(originalState);
+            }
+            resetSliders();
+        });
     }
 
     @FXML
     private void handleUndo() {
-        if (!undoStack.isEmpty()) {
-            redoStack.push(imageView.getImage());
-            imageView.setImage(undoStack.pop());
-        }
+        whenIdle(() -> {
+            renderQueue.cancel();
+            endSliderSession();
+            if (log.undo()) showStep();
+        });
     }
 
     @FXML
     private void handleRedo() {
-        if (!redoStack.isEmpty()) {
-            undoStack.push(imageView.getImage());
-            imageView.setImage(redoStack.pop());
-        }
+        whenIdle(() -> {
+            renderQueue.cancel();
+            endSliderSession();
+            if (log.redo()) showStep();
+        });
     }
 
     // =============================================
-    //   SLIDERS (Brightness, Contrast, Blur)
+    //   SLIDERS (Brightness, Contrast, Blur, Pixelate)
     // =============================================
 
     @FXML
     private void initialize() {
+        renderQueue = new RenderQueue(renderProgress);
         brightnessSlider.valueProperty().addListener((_, _, newVal) ->
                 brightnessLabel.setText(String.format("%.2f", newVal.doubleValue())));
         contrastSlider.valueProperty().addListener((_, _, newVal) ->
                 contrastLabel.setText(String.format("%.2f", newVal.doubleValue())));
-        blurSlider.valueProperty().addListener((_, _, newVal) ->
-                blurLabel.setText(String.format("%.0f", newVal.doubleValue())));
+        blurSlider.valueProperty().addListener((_, _, newVal) -> {
+            double radius = newVal.doubleValue();
+            blurLabel.setText(String.format("%.0f", radius));
+            // Running-sum Gaussian: cost per pixel does not grow with the radius
+            if (!syncingSliders) previewSlider(blurSlider, radius < 0.5 ? null : sliderEffect("Gaussian Blur", radius));
+        });
+        pixelateSlider.valueProperty().addListener((_, _, newVal) -> {
+            int block = (int) Math.round(newVal.doubleValue());
+            pixelateLabel.setText(block < 2 ? "Off" : block + " px");
+            // Block means come from summed-area tables, so every size renders equally fast
+            if (!syncingSliders) previewSlider(pixelateSlider, block < 2 ? null : sliderEffect("Pixelate", block));
+        });
         resetSliders();
     }
 
-    private void resetSliders() {
-        if (brightnessSlider != null) brightnessSlider.setValue(0);
-        if (contrastSlider != null) contrastSlider.setValue(1);
-        if (blurSlider != null) blurSlider.setValue(0);
-    }
-
-    // =============================================
-    //   FILTER BUTTON ACTIONS
-    // =============================================
-
-    @FXML private void applyGrayscale() { filterImage(this::grayscale); }
-    @FXML private void applyInvert()    { filterImage(this::invert); }
-    @FXML private void applySepia()     { filterImage(this::sepia); }
-    @FXML private void applyRGBFilter() { filterImage(this::rgbFilter); }
-    @FXML private void applySharpen()   { filterImage(this::sharpen); }
-    @FXML private void applyEdgeDetect(){ filterImage(this::edgeDetect); }
-    @FXML private void applyPosterize() { filterImage(this::posterize); }
-    @FXML private void applyEmboss()    { filterImage(this::emboss); }
-
-    @FXML private void applyVignette()       { filterImage(this::vignette); }
-    @FXML private void applyWarmTone()       { filterImage(this::warmTone); }
-    @FXML private void applyCoolTone()       { filterImage(this::coolTone); }
-    @FXML private void applyNoise()          { filterImage(this::noise); }
-    @FXML private void applyPixelate()       { filterImage(this::pixelate); }
-    @FXML private void applyTintRed()        { filterImage(this::tintRed); }
-    @FXML private void applyTintBlue()       { filterImage(this::tintBlue); }
-    @FXML private void applyDesaturate()     { filterImage(this::desaturate); }
-    @FXML private void applyHighlightBoost() { filterImage(this::highlightBoost); }
-    @FXML private void applyFade()           { filterImage(this::fade); }
-
-    // =============================================
-    //   FILTER IMPLEMENTATIONS
-    // =============================================
-
-    private Image convolve(Image img, double[][] kernel) {
-        int kw = kernel[0].length, kh = kernel.length;
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader(); PixelWriter wtr = out.getPixelWriter();
-        int kHalfW = kw / 2, kHalfH = kh / 2;
-
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                double rr = 0, gg = 0, bb = 0;
-                for (int ky = 0; ky < kh; ky++) {
-                    int iy = y + ky - kHalfH;
-                    if (iy < 0 || iy >= h) continue;
-                    for (int kx = 0; kx < kw; kx++) {
-                        int ix = x + kx - kHalfW;
-                        if (ix < 0 || ix >= w) continue;
-                        double kval = kernel[ky][kx];
-                        javafx.scene.paint.Color c = r.getColor(ix, iy);
-                        rr += c.getRed() * kval;
-                        gg += c.getGreen() * kval;
-                        bb += c.getBlue() * kval;
-                    }
-                }
-                rr = clamp(rr); gg = clamp(gg); bb = clamp(bb);
-                wtr.setColor(x, y, new javafx.scene.paint.Color(rr, gg, bb, 1.0));
-            }
-        return out;
+    private static Effect sliderEffect(String name, double value) {
+        Effect op = new Effect(name, EffectKernels.categoryOf(name), 1.0);
+        op.setParameters(new double[]{value});
+        return op;
     }
 
-    private Image grayscale(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader(); PixelWriter wtr = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = r.getColor(x, y);
-                double g = (c.getRed() + c.getGreen() + c.getBlue()) / 3.0;
-                wtr.setColor(x, y, new javafx.scene.paint.Color(g, g, g, c.getOpacity()));
-            }
-        return out;
-    }
-
-    private Image invert(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader(); PixelWriter wtr = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = r.getColor(x, y);
-                wtr.setColor(x, y, new javafx.scene.paint.Color(1 - c.getRed(), 1 - c.getGreen(), 1 - c.getBlue(), c.getOpacity()));
+    /**
+     * Shows {@code op} applied to the image the slider's drag started on;
+     * a null op (slider back at its minimum) drops the preview and the undo entry it created.
+     */
+    private void previewSlider(Slider slider, Effect op) {
+        if (editRunning) {
+            if (waitingPreview != null && waitingEdits.peekLast() == waitingPreview) waitingEdits.pollLast();
+            waitingPreview = () -> previewSlider(slider, op);
+            waitingEdits.add(waitingPreview);
+            return;
+        }
+        if (sessionSlider != slider) {
+            endSliderSession();
+            sessionSlider = slider;
+        }
+        if (display == null) return;
+        if (sessionBase == null) sessionBase = log.plan();
+        EditLog.Plan base = sessionBase;
+
+        if (op == null) {
+            renderQueue.cancel();
+            if (sessionCommitted) {
+                // The base was built by the first preview, so this returns at once
+                log.discard();
+                show(base.run(RenderMonitor.NONE));
+                sessionCommitted = false;
             }
-        return out;
-    }
+            return;
+        }
 
-    private Image sepia(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader(); PixelWriter wtr = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = r.getColor(x, y);
-                double tr = Math.min(0.393 * c.getRed() + 0.769 * c.getGreen() + 0.189 * c.getBlue(), 1.0);
-                double tg = Math.min(0.349 * c.getRed() + 0.686 * c.getGreen() + 0.168 * c.getBlue(), 1.0);
-                double tb = Math.min(0.272 * c.getRed() + 0.534 * c.getGreen() + 0.131 * c.getBlue(), 1.0);
-                wtr.setColor(x, y, new javafx.scene.paint.Color(tr, tg, tb, c.getOpacity()));
+        renderQueue.submit(monitor -> render(base.run(monitor), op, monitor), next -> {
+            if (sessionCommitted) {
+                log.amend(op, next);
+            } else {
+                log.record(op, next);
+                sessionCommitted = true;
             }
-        return out;
-    }
-
-    private Image rgbFilter(Image img) {
-        return tint(img, 1.2, 0.8, 0.8);
-    }
-
-    private Image sharpen(Image img) {
-        return convolve(img, new double[][]{
-                {0, -1, 0},
-                {-1, 5, -1},
-                {0, -1, 0}
+            show(next);
         });
     }
 
-    private Image edgeDetect(Image img) {
-        return convolve(img, new double[][]{
-                {-1, -1, -1},
-                {-1, 8, -1},
-                {-1, -1, -1}
-        });
-    }
-    private Image posterize(Image img) {
-        int levels = 4;
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader();
-        PixelWriter pw = out.getPixelWriter();
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-
-                // Calculate posterized channels safely
-                double rVal = Math.floor(c.getRed() * levels) / levels;
-                double gVal = Math.floor(c.getGreen() * levels) / levels;
-                double bVal = Math.floor(c.getBlue() * levels) / levels;
-
-                // Clamp values to prevent out-of-range exceptions
-                rVal = Math.min(1.0, Math.max(0.0, rVal));
-                gVal = Math.min(1.0, Math.max(0.0, gVal));
-                bVal = Math.min(1.0, Math.max(0.0, bVal));
-
-                pw.setColor(x, y, new javafx.scene.paint.Color(rVal, gVal, bVal, c.getOpacity()));
-            }
+    /** Keeps the current slider preview as a normal edit and parks that slider back at its minimum. */
+    private void endSliderSession() {
+        Slider slider = sessionSlider;
+        sessionSlider = null;
+        sessionBase = null;
+        sessionCommitted = false;
+        if (slider != null && slider.getValue() != slider.getMin()) {
+            syncingSliders = true;
+            slider.setValue(slider.getMin());
+            syncingSliders = false;
         }
-        return out;
     }
 
-
-    private Image emboss(Image img) {
-        return convolve(img, new double[][]{
-                {-2, -1, 0},
-                {-1, 1, 1},
-                {0, 1, 2}
-        });
+    private void resetSliders() {
+        if (brightnessSlider != null) brightnessSlider.setValue(0);
+        if (contrastSlider != null) contrastSlider.setValue(1);
+        if (blurSlider != null) blurSlider.setValue(0);
+        if (pixelateSlider != null) pixelateSlider.setValue(1);
     }
 
-    // --- extra effects ---
-    private Image vignette(Image img) { /* same as before */ return img; }
-    private Image warmTone(Image img) { return tint(img, 1.1, 1.0, 0.9); }
-    private Image coolTone(Image img) { return tint(img, 0.9, 1.0, 1.1); }
-    private Image noise(Image img) { return img; }
-    private Image pixelate(Image img) { return img; }
-    private Image tintRed(Image img) { return tint(img, 1.1, 0.9, 0.9); }
-    private Image tintBlue(Image img){ return tint(img, 0.9, 0.9, 1.1); }
-    private Image desaturate(Image img) { return img; }
-    private Image highlightBoost(Image img){ return img; }
-    private Image fade(Image img){ return img; }
-
-    private Image tint(Image img, double rFac, double gFac, double bFac) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                pw.setColor(x, y, new javafx.scene.paint.Color(
-                        clamp(c.getRed() * rFac),
-                        clamp(c.getGreen() * gFac),
-                        clamp(c.getBlue() * bFac),
-                        c.getOpacity()));
-            }
-        return out;
-    }
+    // =============================================
+    //   FILTER BUTTON ACTIONS
+    // =============================================
 
-    private double clamp(double v) { return Math.max(0, Math.min(v, 1)); }
+    @FXML private void applyGrayscale() { applyEffect("Grayscale"); }
+    @FXML private void applyInvert()    { applyEffect("Invert"); }
+    @FXML private void applySepia()     { applyEffect("Sepia"); }
+    @FXML private void applyRGBFilter() { applyEffect("RGB Filter"); }
+    @FXML private void applyBlur()      { applyEffect("Blur"); }
+    @FXML private void applySharpen()   { applyEffect("Sharpen"); }
+    @FXML private void applyEdgeDetect(){ applyEffect("Edge Detect"); }
+    @FXML private void applyPosterize() { applyEffect("Posterize"); }
+    @FXML private void applyEmboss()    { applyEffect("Emboss"); }
+
+    @FXML private void applyVignette()       { applyEffect("Vignette"); }
+    @FXML private void applyWarmTone()       { applyEffect("Warm Tone"); }
+    @FXML private void applyCoolTone()       { applyEffect("Cool Tone"); }
+    @FXML private void applyNoise()          { applyEffect("Noise"); }
+    @FXML private void applyPixelate()       { applyEffect("Pixelate"); }
+    @FXML private void applyTintRed()        { applyEffect("Tint Red"); }
+    @FXML private void applyTintBlue()       { applyEffect("Tint Blue"); }
+    @FXML private void applyDesaturate()     { applyEffect("Desaturate"); }
+    @FXML private void applyHighlightBoost() { applyEffect("Highlight Boost"); }
+    @FXML private void applyFade()           { applyEffect("Fade"); }
 
  // ✅ Correct version — keep only this one
     @FXML
@@ -1,14 +1,24 @@
 package application.controller;
 
+import application.engine.ImageLoader;
+import application.engine.RenderMonitor;
+import application.engine.Resampler;
 import javafx.scene.image.Image;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ImageSlider {
     private final List<String> imagePaths = new ArrayList<>();
     private int currentIndex = 0;
+    // Thumbnails are small, so every one generated is kept (keyed by path and size)
+    private final Map<String, Image> thumbnails = new HashMap<>();
+    // Non-JPEG thumbnails are decoded at this multiple of their size, leaving the area average some pixels to work with
+    private static final int THUMBNAIL_SOURCE = 4;
 
     public void addImages(List<String> paths) {
         imagePaths.addAll(paths);
@@ -26,6 +36,9 @@ public class ImageSlider {
 
     public void clearImages() {
         imagePaths.clear();
+        synchronized (thumbnails) {
+            thumbnails.clear();
+        }
         currentIndex = 0;
     }
 
@@ -37,15 +50,64 @@ public class ImageSlider {
         return imagePaths.size();
     }
 
+    /** Decodes the current image on the calling thread; views load it with ImageLoader instead. */
     public Image getCurrentImage() {
         if (imagePaths.isEmpty()) return null;
-        try (FileInputStream fis = new FileInputStream(imagePaths.get(currentIndex))) {
-            return new Image(fis);
+        return decode(imagePaths.get(currentIndex));
+    }
+
+    /**
+     * Area-averaged thumbnail of the image at {@code path} fitting size x size, generated once.
+     * Safe to call from a background thread.
+     */
+    public Image getThumbnail(String path, int size) {
+        String key = path + "@" + size;
+        synchronized (thumbnails) {
+            Image cached = thumbnails.get(key);
+            if (cached != null) return cached;
+        }
+        // A subsampled JPEG decode is still at least size x size, and quicker than the full photo
+        Image source = subsampled(path, size);
+        if (source == null) source = decode(path, size * THUMBNAIL_SOURCE);
+        if (source == null) return null;
+        Image thumb = Resampler.thumbnail(source, size, size);
+        synchronized (thumbnails) {
+            thumbnails.put(key, thumb);
+        }
+        return thumb;
+    }
+
+    private static Image subsampled(String path, int size) {
+        try {
+            return ImageLoader.preview(new File(path), size, size, RenderMonitor.NONE);
         } catch (Exception e) {
             return null;
         }
     }
 
+    /** Decodes scaled down to fit size x size, so only the smaller image is kept. */
+    private static Image decode(String path, int size) {
+        try {
+            Image img = new Image(new File(path).toURI().toString(), size, size, true, true);
+            return img.isError() ? null : img;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Image decode(String path) {
+        try (FileInputStream fis = new FileInputStream(path)) {
+            Image img = new Image(fis);
+            return img.isError() ? null : img;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String getImagePath(int index) {
+        return imagePaths.get(index);
+    }
+
     public String getCurrentImagePath() {
         if (imagePaths.isEmpty()) return "";
         return imagePaths.get(currentIndex);
@@ -55,6 +117,10 @@ public class ImageSlider {
         return currentIndex;
     }
 
+    public void setCurrentIndex(int index) {
+        if (index >= 0 && index < imagePaths.size()) currentIndex = index;
+    }
+
     public void next() {
         if (!imagePaths.isEmpty()) {
             currentIndex = (currentIndex + 1) % imagePaths.size();
@@ -1,6 +1,10 @@
 package application.controller;
 
+import application.engine.ImageLoader;
+import application.engine.Resampler;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
+import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.control.Label;
 import javafx.stage.FileChooser;
@@ -9,17 +13,38 @@ import javafx.event.ActionEvent;
 import javafx.scene.Parent;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class ImageSliderView {
 
     @FXML private ImageView sliderImage;
     @FXML private Label imageInfoLabel;
+    @FXML private HBox thumbnailStrip;
+
+    private static final int THUMBNAIL_SIZE = 64;
+    // A couple of threads for the strip, so adding many images neither floods the common pool
+    // nor holds more than two decodes in memory at once
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ExecutorService THUMBNAILS =
+            Executors.newFixedThreadPool(Math.min(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "thumbnail-" + THREADS.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
 
     private final ImageSlider imageSlider = new ImageSlider();
+    private final ImageLoader imageLoader = new ImageLoader();
+    // Thumbnails of the current strip still to be generated; cancelled when it is rebuilt
+    private final List<Future<?>> pendingThumbnails = new ArrayList<>();
 
     @FXML
     public void initialize() {
@@ -39,6 +64,7 @@ public class ImageSliderView {
             List<String> paths = files.stream().map(File::getAbsolutePath).collect(Collectors.toList());
             imageSlider.addImages(paths);
             updateSlider();
+            updateThumbnails();
         }
     }
 
@@ -56,6 +82,7 @@ public class ImageSliderView {
 
     @FXML
     private void handleBack(ActionEvent event) {
+        cancelThumbnails();
         try {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/dashboard_view.fxml"));
             Parent dashboard = loader.load();
@@ -69,12 +96,75 @@ public class ImageSliderView {
 
     private void updateSlider() {
         if (!imageSlider.hasImages()) {
+            imageLoader.cancel();
             sliderImage.setImage(null);
             imageInfoLabel.setText("No images loaded. Click 'Add Images' to begin.");
         } else {
-            sliderImage.setImage(imageSlider.getCurrentImage());
+            // Subsampled preview first, then the full image scaled down (Lanczos-3) off the FX thread,
+            // so the view does not rescale a full-size photo on every frame. Flipping on cancels it.
+            double scale = sliderImage.getScene() != null && sliderImage.getScene().getWindow() != null
+                    ? sliderImage.getScene().getWindow().getOutputScaleX() : 1;
+            int w = (int) Math.ceil(sliderImage.getFitWidth() * scale);
+            int h = (int) Math.ceil(sliderImage.getFitHeight() * scale);
+            imageLoader.load(new File(imageSlider.getCurrentImagePath()), w, h, new ImageLoader.Listener() {
+                @Override
+                public void preview(Image preview) {
+                    sliderImage.setImage(preview);
+                }
+
+                @Override
+                public Image prepare(Image image) {
+                    return Resampler.fit(image, w, h);
+                }
+
+                @Override
+                public void loaded(Image image) {
+                    sliderImage.setImage(image);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    System.err.println("[ImageSlider] Could not load " + imageSlider.getCurrentImagePath() + ": " + e);
+                    sliderImage.setImage(null);
+                }
+            });
             imageInfoLabel.setText("Image " + (imageSlider.getCurrentIndex() + 1)
                     + " of " + imageSlider.getImageCount());
         }
     }
+
+    /**
+     * Rebuilds the thumbnail strip; thumbnails are generated in the background and filled in as they
+     * finish. Those of the previous strip not yet started are cancelled.
+     */
+    private void updateThumbnails() {
+        cancelThumbnails();
+        thumbnailStrip.getChildren().clear();
+        for (int i = 0; i < imageSlider.getImageCount(); i++) {
+            int index = i;
+            String path = imageSlider.getImagePath(i);
+            ImageView thumb = new ImageView();
+            thumb.setFitWidth(THUMBNAIL_SIZE);
+            thumb.setFitHeight(THUMBNAIL_SIZE);
+            thumb.setPreserveRatio(true);
+            thumb.setOnMouseClicked(e -> {
+                imageSlider.setCurrentIndex(index);
+                updateSlider();
+            });
+            thumbnailStrip.getChildren().add(thumb);
+            pendingThumbnails.add(THUMBNAILS.submit(() -> {
+                try {
+                    Image img = imageSlider.getThumbnail(path, THUMBNAIL_SIZE);
+                    Platform.runLater(() -> thumb.setImage(img));
+                } catch (Exception ex) {
+                    System.err.println("[ImageSlider] Thumbnail failed: " + ex);
+                }
+            }));
+        }
+    }
+
+    private void cancelThumbnails() {
+        pendingThumbnails.forEach(f -> f.cancel(false));
+        pendingThumbnails.clear();
+    }
 }
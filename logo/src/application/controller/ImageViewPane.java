@@ -1,5 +1,6 @@
 package application.controller;
 
+import application.engine.ImageLoader;
 import javafx.fxml.FXML;
 import javafx.scene.image.*;
 import javafx.scene.control.*;
@@ -11,13 +12,15 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.layout.BorderPane;
 
 import java.io.File;
-import java.io.FileInputStream;
 
 public class ImageViewPane {
 
     @FXML private ImageView mainImageView;
     @FXML private Label imageInfoLabel;
 
+    // Decodes in the background, showing a subsampled preview first; opening another file cancels it
+    private final ImageLoader imageLoader = new ImageLoader();
+
     
     public void initialize() {
         imageInfoLabel.setText("No image loaded. Click 'Open Image' to select a file.");
@@ -33,15 +36,26 @@ public class ImageViewPane {
         Stage stage = (Stage) mainImageView.getScene().getWindow();
         File file = fileChooser.showOpenDialog(stage);
         if (file != null) {
-            file.getAbsolutePath();
-            try (FileInputStream fis = new FileInputStream(file)) {
-                mainImageView.setImage(new Image(fis));
-                imageInfoLabel.setText("Loaded: " + file.getName() +
-                        "  (" + (file.length() / 1024) + " KB)");
-            } catch (Exception e) {
-                mainImageView.setImage(null);
-                imageInfoLabel.setText("Failed to load image.");
-            }
+            imageInfoLabel.setText("Loading: " + file.getName() + "...");
+            imageLoader.load(file, mainImageView, new ImageLoader.Listener() {
+                @Override
+                public void preview(Image preview) {
+                    mainImageView.setImage(preview);
+                }
+
+                @Override
+                public void loaded(Image image) {
+                    mainImageView.setImage(image);
+                    imageInfoLabel.setText("Loaded: " + file.getName() +
+                            "  (" + (file.length() / 1024) + " KB)");
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    mainImageView.setImage(null);
+                    imageInfoLabel.setText("Failed to load image.");
+                }
+            });
         }
     }
 
@@ -1,21 +1,46 @@
 package application.controller;
 
+import application.engine.ArgbImage;
+import application.engine.TileHistory;
+import javafx.application.Platform;
 import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
 
-import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Current image of an editing session with undo/redo.
+ * History steps keep only the tiles an edit changed (see TileHistory), and the current image is
+ * a single WritableImage that undo and redo update tile by tile, so callers showing it see the
+ * change without a new image being built.
+ * History beyond a byte budget is deflated to a scratch file and paged back in the background
+ * as undo and redo move towards it, so a long session keeps constant memory.
+ */
 public class PhotoEditorContext {
-    private Image currentImage;
-    private final Stack<Image> undoStack = new Stack<>();
-    private final Stack<Image> redoStack = new Stack<>();
+    private final TileHistory history;
+    private WritableImage currentImage;
+    private TileHistory.State shown;
+
+    /** Context with the default history budget (see TileHistory#DEFAULT_BUDGET). */
+    public PhotoEditorContext() {
+        this(TileHistory.DEFAULT_BUDGET);
+    }
+
+    /** @param historyBudget bytes of history to keep in memory before spilling older steps to disk */
+    public PhotoEditorContext(long historyBudget) {
+        this.history = new TileHistory(historyBudget);
+    }
 
     // Set a new image and clear redo stack (for normal edits)
     public void setImage(Image image) {
-        if (currentImage != null) {
-            undoStack.push(currentImage);
-            redoStack.clear();
+        ArgbImage pixels = ArgbImage.of(image);
+        TileHistory.State current = history.current();
+        if (current == null) {
+            history.reset(TileHistory.State.of(pixels));
+        } else {
+            history.commit(current.derive(pixels));
         }
-        this.currentImage = image;
+        show(history.current());
     }
 
     public Image getCurrentImage() {
@@ -24,32 +49,64 @@ public class PhotoEditorContext {
 
     // Undo/Redo support (call from editor UI)
     public Image undo() {
-        if (!undoStack.isEmpty()) {
-            redoStack.push(currentImage);
-            currentImage = undoStack.pop();
-        }
+        TileHistory.State state = history.undo();
+        if (state != null) show(state);
         return currentImage;
     }
 
     public Image redo() {
-        if (!redoStack.isEmpty()) {
-            undoStack.push(currentImage);
-            currentImage = redoStack.pop();
-        }
+        TileHistory.State state = history.redo();
+        if (state != null) show(state);
         return currentImage;
     }
 
+    /**
+     * Undo that waits for spilled tiles off the FX thread: the step is taken now, and the
+     * current image is updated (on the FX thread) once its tiles are back in memory.
+     */
+    public CompletableFuture<Image> undoAsync() {
+        return showWhenLoaded(history.undo());
+    }
+
+    public CompletableFuture<Image> redoAsync() {
+        return showWhenLoaded(history.redo());
+    }
+
+    private CompletableFuture<Image> showWhenLoaded(TileHistory.State state) {
+        if (state == null) return CompletableFuture.completedFuture(currentImage);
+        return state.load().thenApplyAsync(s -> {
+            // A later step may have been shown while this one was loading
+            if (s == history.current()) show(s);
+            return currentImage;
+        }, Platform::runLater);
+    }
+
     public void reset() {
         currentImage = null;
-        undoStack.clear();
-        redoStack.clear();
+        shown = null;
+        history.clear();
     }
 
     public boolean canUndo() {
-        return !undoStack.isEmpty();
+        return history.canUndo();
     }
 
     public boolean canRedo() {
-        return !redoStack.isEmpty();
+        return history.canRedo();
+    }
+
+    /** Bytes of history in memory (tiles shared between steps count once); the rest is on disk. */
+    public long historyBytes() {
+        return history.bytes();
+    }
+
+    private void show(TileHistory.State state) {
+        if (currentImage == null || shown == null || (int) currentImage.getWidth() != state.getWidth()
+                || (int) currentImage.getHeight() != state.getHeight()) {
+            currentImage = state.toImage();
+        } else {
+            state.writeChanges(shown, currentImage.getPixelWriter());
+        }
+        shown = state;
     }
 }
@@ -1,35 +1,162 @@
 package application.controller;
 
-import javafx.embed.swing.SwingFXUtils;
+import application.engine.ArgbImage;
+import application.engine.AutoAdjust;
+import application.engine.BorderMode;
+import application.engine.EditStack;
+import application.engine.EffectKernels;
+import application.engine.ImageLoader;
+import application.engine.ImageProxy;
+import application.engine.ImagePyramid;
+import application.engine.ImageStatistics;
+import application.engine.ImageStatistics.Channel;
+import application.engine.PixelEngine;
+import application.engine.PixelKernel;
+import application.engine.RenderMonitor;
+import application.engine.RenderQueue;
+import application.engine.Resampler;
+import application.engine.TiledImageStore;
+import application.model.Effect;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
+import javafx.scene.control.cell.CheckBoxListCell;
 import javafx.scene.image.*;
+import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.event.ActionEvent;
+import javafx.util.Duration;
 
-import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 public class PhotoEditorController {
 
     @FXML private ImageView imageView;
-    @FXML private Slider brightnessSlider, contrastSlider;
-    @FXML private ComboBox<String> effectSelector;
-
+    @FXML private Slider brightnessSlider, contrastSlider, intensitySlider;
+    @FXML private ComboBox<String> effectSelector, exportSizeSelector, edgeSelector;
+    @FXML private ListView<Effect> effectStackView;
+    @FXML private ProgressBar renderProgress;
+    @FXML private Canvas histogramCanvas;
+    @FXML private Label exportStatus;
+
+    // The unedited image as shown at fit: the image itself, or a screen-sized proxy of a large one
     private Image originalImage;
-    private Stack<Image> undoStack = new Stack<>();
-    private Stack<Image> redoStack = new Stack<>();
+    private RenderQueue renderQueue;
+    // Decodes opened files in the background, showing a subsampled preview until the full image is in
+    private final ImageLoader imageLoader = new ImageLoader();
+
+    // Export runs on its own thread through its own stack, so view renders cannot cancel it;
+    // the source store it reads stays open until it is done (see closeImage)
+    private static final ExecutorService EXPORTER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "export");
+        t.setDaemon(true);
+        return t;
+    });
+    private Task<Void> exportTask;
+    private TiledImageStore exportSource;
+    private boolean closeExportSource;
+
+    // Full-resolution pixels, off the heap (see TiledImageStore). Files too large to decode into a
+    // JavaFX image (or that JavaFX cannot read, like TIFF) are decoded straight into the store.
+    private TiledImageStore sourceStore;
+    // Store of a large file being opened (see openLarge), handed to whoever gets it first:
+    // the open's commit, or the open being cancelled, which closes it
+    private AtomicReference<TiledImageStore> opening;
+
+    // Edits are non-destructive: the image is always sourceStore run through the edit stack.
+    // Undo/redo store snapshots of the effect list; cached segments make re-renders cheap.
+    private EditStack editStack, previewStack;
+    private Image stackImage;
+    private final Stack<List<Effect>> undoStack = new Stack<>();
+    private final Stack<List<Effect>> redoStack = new Stack<>();
+    private final Map<Effect, BooleanProperty> enabledProperties = new IdentityHashMap<>();
+
+    // Histogram of the whole edited image, measured on the proxy stack's output with every render
+    // (only segments below the changed node are re-rendered, and counting a proxy takes milliseconds)
+    private ImageStatistics stackStats;
+
+    // Zoom/pan: at fit (zoom 1) the proxy-sized preview stack is shown, its spatial effects scaled
+    // to the proxy so it matches what zooming in and export show; zoomed in, only the
+    // visible part of the full-resolution stack is rendered, shown from the mipmap level nearest
+    // the zoom (see EditStack#renderLevel). Everything else waits for Save.
+    private static final double MAX_ZOOM = 32;
+    private final PauseTransition viewDebounce = new PauseTransition(Duration.millis(60));
+    private double zoom = 1, centerX = 0.5, centerY = 0.5;
+    private double dragX, dragY;
+
+    // Intensity slider edits of the selected node; one undo step per node being edited
+    private final PauseTransition intensityDebounce = new PauseTransition(Duration.millis(80));
+    private Effect intensityEdited;
+    private boolean syncingIntensity;
+
+    // Live brightness/contrast: while a slider moves, at most one preview per frame is rendered
+    // from a screen-sized proxy; once the sliders rest, the full image is rendered in the background.
+    private final PauseTransition previewThrottle = new PauseTransition(Duration.millis(16));
+    private final PauseTransition settleDebounce = new PauseTransition(Duration.millis(250));
+    private Image adjustBase;
+    private CompletableFuture<ArgbImage> adjustProxy;
+    private Effect adjustContrast, adjustBrightness;
+    private boolean syncingSliders;
 
     @FXML
     private void initialize() {
+        renderQueue = new RenderQueue(renderProgress);
+        previewThrottle.setOnFinished(e -> renderAdjustPreview());
+        settleDebounce.setOnFinished(e -> renderAdjustFull());
+        intensityDebounce.setOnFinished(e -> renderStack());
+        viewDebounce.setOnFinished(e -> renderStack());
+        imageView.setOnScroll(e -> zoomBy(e.getDeltaY() > 0 ? 1.25 : 0.8));
+        imageView.setOnMousePressed(e -> { dragX = e.getX(); dragY = e.getY(); });
+        imageView.setOnMouseDragged(e -> {
+            panBy(dragX - e.getX(), dragY - e.getY());
+            dragX = e.getX();
+            dragY = e.getY();
+        });
+        brightnessSlider.valueProperty().addListener((_, _, _) -> onAdjustChanged());
+        contrastSlider.valueProperty().addListener((_, _, _) -> onAdjustChanged());
+        brightnessSlider.valueChangingProperty().addListener((_, _, _) -> onAdjustChanged());
+        contrastSlider.valueChangingProperty().addListener((_, _, _) -> onAdjustChanged());
         effectSelector.getItems().addAll(
                 "Grayscale", "Invert", "Sepia", "RGB Filter", "Blur", "Sharpen",
                 "Edge Detect", "Posterize", "Emboss",
-                "Vignette", "Warm Tone", "Cool Tone", "Noise",
-                "Pixelate", "Tint Red", "Tint Blue",
-                "Desaturate", "Highlight Boost", "Fade"
+                "Vignette", "Gradient", "Warm Tone", "Cool Tone", "Noise", "Gaussian Noise", "Film Grain",
+                "Pixelate", "Local Contrast", "Median Denoise", "Tint Red", "Tint Blue",
+                "Desaturate", "Highlight Boost", "Skin Smoothing", "Fade"
         );
+
+        // Border mode of the convolution effects. Renders run on windows of the image, so
+        // wrap-around borders (which read the opposite edge) are not offered
+        edgeSelector.getItems().addAll("Clamp edges", "Mirror edges");
+        edgeSelector.setValue("Clamp edges");
+        effectSelector.valueProperty().addListener((_, _, effect) ->
+                edgeSelector.setDisable(effect == null || !EffectKernels.hasBorderMode(effect)));
+        edgeSelector.setDisable(true);
+
+        exportSizeSelector.getItems().addAll("Original size", "50%", "25%", "3840 px", "1920 px", "1080 px");
+        exportSizeSelector.setValue("Original size");
+
+        effectStackView.setCellFactory(CheckBoxListCell.forListView(this::enabledProperty));
+        effectStackView.getSelectionModel().selectedItemProperty().addListener((_, _, effect) -> syncIntensitySlider(effect));
+        intensitySlider.valueProperty().addListener((_, _, value) -> onIntensityChanged(value.doubleValue()));
+        syncIntensitySlider(null);
     }
 
     // ---------- IMAGE LOADING ----------
@@ -38,370 +165,599 @@ public class PhotoEditorController {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Open Image");
         fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg", "*.jpeg", "*.bmp", "*.gif")
+                new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg", "*.jpeg", "*.bmp", "*.gif", "*.tif", "*.tiff")
         );
         File file = fileChooser.showOpenDialog(null);
-        if (file != null) {
-            originalImage = new Image(file.toURI().toString());
-            imageView.setImage(originalImage);
-            undoStack.clear();
-            redoStack.clear();
+        if (file == null) return;
+        renderQueue.cancelAll();
+        discardOpening();
+        imageLoader.cancel();
+        endAdjustSession();
+        if (needsTiledDecode(file)) {
+            openLarge(file);
+            return;
         }
+        // Edits stay disabled (no stacks) until the full image is in
+        closeImage();
+        imageView.setImage(null);
+        refreshStackView();
+        imageLoader.load(file, imageView, new ImageLoader.Listener() {
+            @Override
+            public void preview(Image preview) {
+                imageView.setImage(preview);
+            }
+
+            @Override
+            public void loaded(Image image) {
+                showOpened(image, TiledImageStore.of(image));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                System.err.println("[PhotoEditor] Could not open " + file.getName() + ": " + e);
+                imageView.setImage(null);
+            }
+        });
+    }
+
+    /**
+     * True for files JavaFX cannot decode (TIFF) and for images whose pixels would take more
+     * than a quarter of the heap, e.g. 200 MP poster scans.
+     */
+    private static boolean needsTiledDecode(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".tif") || name.endsWith(".tiff")) return true;
+        try {
+            int[] size = TiledImageStore.readSize(file);
+            return size != null && 4L * size[0] * size[1] > Runtime.getRuntime().maxMemory() / 4;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes a large file into a store in the background and shows a screen-sized proxy of it;
+     * a subsampled preview is shown while the full decode runs (JPEG only, see ImageLoader).
+     * The decode runs as an edit, so view renders and undo do not cancel it; only opening
+     * another file does.
+     */
+    private void openLarge(File file) {
+        closeImage();
+        imageView.setImage(null);
+        refreshStackView();
+        int pw = (int) Math.ceil(imageView.getFitWidth() * outputScale());
+        int ph = (int) Math.ceil(imageView.getFitHeight() * outputScale());
+        AtomicReference<TiledImageStore> pending = new AtomicReference<>();
+        opening = pending;
+        imageLoader.loadPreview(file, imageView, imageView::setImage);
+        renderQueue.submitEdit(monitor -> {
+            pending.set(TiledImageStore.read(file, monitor));
+            try {
+                Image proxy = ImageProxy.fit(pending.get(), pw, ph).toImage();
+                // Set before checking, so either this or discardOpening sees the other and closes the store
+                if (monitor.isCancelled()) closeStore(pending.getAndSet(null));
+                return proxy;
+            } catch (RuntimeException e) {
+                closeStore(pending.getAndSet(null));
+                // A cancelled open may have had its store closed under it
+                if (monitor.isCancelled()) return null;
+                throw e;
+            }
+        }, proxy -> {
+            TiledImageStore store = pending.getAndSet(null);
+            if (opening != pending || store == null) {
+                closeStore(store);
+                return;
+            }
+            opening = null;
+            imageLoader.cancel();
+            showOpened(proxy, store);
+        }, () -> {
+            closeStore(pending.getAndSet(null));
+            if (opening != pending) return;
+            opening = null;
+            System.err.println("[PhotoEditor] Could not open " + file.getName());
+        });
+    }
+
+    /** Cancels the large file being opened, if any, and frees its store if the decode got that far. */
+    private void discardOpening() {
+        if (opening == null) return;
+        closeStore(opening.getAndSet(null));
+        opening = null;
+    }
+
+    private static void closeStore(TiledImageStore store) {
+        if (store != null) store.close();
+    }
+
+    private void showOpened(Image image, TiledImageStore store) {
+        closeImage();
+        originalImage = image;
+        sourceStore = store;
+        openStacks();
+        zoom = 1;
+        centerX = centerY = 0.5;
+        stackImage = originalImage;
+        imageView.setImage(originalImage);
+        undoStack.clear();
+        redoStack.clear();
+        refreshStackView();
+        renderStack();
     }
 
     // ---------- IMAGE SAVE ----------
     @FXML
     private void handleSaveImage() {
-        if (imageView.getImage() == null) return;
+        if (editStack == null) return;
+        if (exportTask != null) {
+            exportStatus.setText("Still exporting; save again when it is done.");
+            return;
+        }
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Image");
         fileChooser.getExtensionFilters().add(
                 new FileChooser.ExtensionFilter("PNG Image", "*.png")
         );
         File file = fileChooser.showSaveDialog(null);
-        if (file != null) {
-            try {
-                BufferedImage bImage = SwingFXUtils.fromFXImage(imageView.getImage(), null);
-                javax.imageio.ImageIO.write(bImage, "png", file);
-            } catch (Exception e) {
-                e.printStackTrace();
+        if (file == null) return;
+        endAdjustSession();
+
+        // Export is the only place the whole full-resolution stack gets rendered; it stays in
+        // tiled stores and is encoded from there, so it never has to fit the heap.
+        // A smaller export size is resampled from it with Lanczos-3
+        TiledImageStore source = sourceStore;
+        List<Effect> state = editStack.snapshot();
+        boolean empty = editStack.isEmpty();
+        String size = exportSizeSelector.getValue();
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                Task<Void> self = this;
+                RenderMonitor monitor = new RenderMonitor() {
+                    @Override public boolean isCancelled() { return self.isCancelled(); }
+                    @Override public void progress(long done, long total) { updateProgress(done, total); }
+                };
+                EditStack stack = empty ? null : new EditStack(source);
+                try {
+                    int[] target = exportSize(source.getWidth(), source.getHeight(), size);
+                    TiledImageStore full = empty ? source : stack.renderAll(state, monitor);
+                    boolean fullSize = target[0] == full.getWidth() && target[1] == full.getHeight();
+                    TiledImageStore out = fullSize ? full
+                            : Resampler.resize(full, target[0], target[1], Resampler.Filter.LANCZOS3, monitor);
+                    try {
+                        ImageIO.write(out.asBufferedImage(true), "png", file);
+                    } finally {
+                        if (out != full) out.close();
+                    }
+                } finally {
+                    if (stack != null) stack.close();
+                }
+                return null;
             }
+        };
+        task.setOnSucceeded(e -> exportDone("Saved " + file.getName()));
+        task.setOnCancelled(e -> exportDone("Export of " + file.getName() + " cancelled"));
+        task.setOnFailed(e -> {
+            Throwable error = task.getException();
+            System.err.println("[PhotoEditor] Export failed: " + error);
+            exportDone("Export failed: " + (error.getMessage() != null ? error.getMessage() : error));
+        });
+        exportTask = task;
+        exportSource = source;
+        exportStatus.setText("Exporting " + file.getName() + "...");
+        EXPORTER.submit(task);
+    }
+
+    private void exportDone(String status) {
+        exportTask = null;
+        if (closeExportSource) {
+            // Renders of the old stacks may still read it too
+            TiledImageStore source = exportSource;
+            renderQueue.runAfter(source::close);
+        }
+        exportSource = null;
+        closeExportSource = false;
+        exportStatus.setText(status);
+    }
+
+    /** Pixel size for an export size choice: a percentage, or a cap on the long edge ("1920 px"). */
+    private static int[] exportSize(int width, int height, String choice) {
+        if (choice == null || choice.startsWith("Original")) return new int[]{width, height};
+        if (choice.endsWith("%")) {
+            double f = Integer.parseInt(choice.substring(0, choice.length() - 1)) / 100.0;
+            return new int[]{Math.max(1, (int) Math.round(width * f)), Math.max(1, (int) Math.round(height * f))};
         }
+        int edge = Integer.parseInt(choice.substring(0, choice.indexOf(' ')));
+        return Resampler.fitSize(width, height, edge, edge);
     }
 
     // ---------- APPLY FILTER ----------
     @FXML
     private void handleApplyFilter() {
-        if (imageView.getImage() == null) return;
+        endAdjustSession();
+        if (editStack == null) return;
         String effect = effectSelector.getValue();
-        if (effect == null) return;
+        if (effect == null || EffectKernels.byName(effect) == null) return;
 
         pushUndo();
-
-        Image img = imageView.getImage();
-        Image out = switch (effect) {
-            case "Grayscale" -> grayscale(img);
-            case "Invert" -> invert(img);
-            case "Sepia" -> sepia(img);
-            case "RGB Filter" -> rgbFilter(img);
-            case "Blur" -> blur(img);
-            case "Sharpen" -> sharpen(img);
-            case "Edge Detect" -> edgeDetect(img);
-            case "Posterize" -> posterize(img);
-            case "Emboss" -> emboss(img);
-            case "Vignette" -> vignette(img);
-            case "Warm Tone" -> warmTone(img);
-            case "Cool Tone" -> coolTone(img);
-            case "Noise" -> noise(img);
-            case "Pixelate" -> pixelate(img);
-            case "Tint Red" -> tintRed(img);
-            case "Tint Blue" -> tintBlue(img);
-            case "Desaturate" -> desaturate(img);
-            case "Highlight Boost" -> highlightBoost(img);
-            case "Fade" -> fade(img);
-            default -> img;
-        };
-
-        imageView.setImage(out);
+        Effect node = new Effect(effect, EffectKernels.categoryOf(effect), 1.0);
+        if (EffectKernels.hasBorderMode(effect)) {
+            BorderMode border = "Mirror edges".equals(edgeSelector.getValue()) ? BorderMode.MIRROR : BorderMode.CLAMP;
+            node.setParameters(new double[]{border.ordinal()});
+        }
+        editStack.effects().add(node);
+        refreshStackView();
+        effectStackView.getSelectionModel().selectLast();
+        renderStack();
     }
 
-    // ---------- UNDO / REDO ----------
-    @FXML private void handleUndo() {
-        if (!undoStack.isEmpty()) {
-            redoStack.push(imageView.getImage());
-            imageView.setImage(undoStack.pop());
+    /**
+     * Renders what the view shows in the background: the proxy preview at fit, or the visible
+     * tiles when zoomed in (at the pyramid level matching the zoom). Only segments from the first changed node down are recomputed.
+     * The histogram is refreshed from the proxy output in the same job.
+     */
+    private void renderStack() {
+        EditStack stack = editStack;
+        if (stack == null) return;
+        List<Effect> state = stack.snapshot();
+        EditStack preview = previewStack;
+        if (zoom <= 1) {
+            if (stack.isEmpty()) {
+                stackImage = originalImage;
+                imageView.setImage(stackImage);
+                renderQueue.submit(monitor -> ImageStatistics.of(preview.render(state, monitor)), this::showStatistics);
+                return;
+            }
+            renderQueue.submit(monitor -> {
+                ArgbImage out = preview.render(state, monitor);
+                return new Rendered(out.toImage(), ImageStatistics.of(out));
+            }, this::showRender);
+            return;
         }
+        // Zoomed in but still showing more image pixels than screen pixels: take the pyramid level
+        // nearest the on-screen scale, so the view only ever shrinks by less than 2x
+        int[] r = visibleRegion();
+        double scale = outputScale() * Math.min(imageView.getFitWidth() / (r[2] - r[0]), imageView.getFitHeight() / (r[3] - r[1]));
+        int level = ImagePyramid.levelFor(scale, sourceStore.getWidth(), sourceStore.getHeight());
+        renderQueue.submit(monitor -> {
+            ImageStatistics stats = ImageStatistics.of(preview.render(state, monitor));
+            return new Rendered(stack.renderLevel(state, level, r[0], r[1], r[2], r[3], monitor).toImage(), stats);
+        }, this::showRender);
     }
 
-    @FXML private void handleRedo() {
-        if (!redoStack.isEmpty()) {
-            undoStack.push(imageView.getImage());
-            imageView.setImage(redoStack.pop());
-        }
+    /** What a stack render shows: the image, and the histogram of the whole edited image. */
+    private record Rendered(Image image, ImageStatistics stats) { }
+
+    private void showRender(Rendered out) {
+        stackImage = out.image();
+        imageView.setImage(stackImage);
+        showStatistics(out.stats());
     }
 
-    private void pushUndo() {
-        if (imageView.getImage() != null)
-            undoStack.push(imageView.getImage());
-        redoStack.clear();
+    // ---------- HISTOGRAM / AUTO ----------
+    private void showStatistics(ImageStatistics stats) {
+        stackStats = stats;
+        GraphicsContext g = histogramCanvas.getGraphicsContext2D();
+        double w = histogramCanvas.getWidth(), h = histogramCanvas.getHeight();
+        g.setFill(Color.web("#1e293b"));
+        g.fillRect(0, 0, w, h);
+        if (stats == null || stats.count() == 0) return;
+
+        // Scale to the tallest bin away from the ends, so clipped blacks/whites don't flatten the rest
+        long peak = 1;
+        Channel[] channels = Channel.values();
+        long[][] bins = new long[channels.length][];
+        for (int c = 0; c < channels.length; c++) {
+            bins[c] = stats.histogram(channels[c]);
+            for (int v = 1; v < 255; v++) peak = Math.max(peak, bins[c][v]);
+        }
+        Color[] colors = {Color.rgb(239, 68, 68, 0.5), Color.rgb(34, 197, 94, 0.5), Color.rgb(59, 130, 246, 0.5)};
+        double step = w / 256;
+        for (int c = 0; c < 3; c++) {
+            g.setFill(colors[c]);
+            for (int v = 0; v < 256; v++) {
+                double bar = Math.min(h, h * bins[c][v] / peak);
+                g.fillRect(v * step, h - bar, step, bar);
+            }
+        }
+        g.setStroke(Color.rgb(241, 245, 249, 0.9));
+        g.beginPath();
+        for (int v = 0; v < 256; v++) {
+            double y = h - Math.min(h, h * bins[Channel.LUMA.ordinal()][v] / peak);
+            if (v == 0) g.moveTo(0, y);
+            else g.lineTo((v + 0.5) * step, y);
+        }
+        g.stroke();
     }
 
-    // ---------- RESET ----------
     @FXML
-    private void handleReset() {
-        if (originalImage != null) {
-            imageView.setImage(originalImage);
-            undoStack.clear();
-            redoStack.clear();
-        }
-        brightnessSlider.setValue(1);
-        contrastSlider.setValue(1);
-        effectSelector.setValue(null);
+    private void handleAutoLevels() {
+        addMeasuredEffect("Auto Levels", AutoAdjust::levels);
     }
 
-    // ---------- NAVIGATION ----------
     @FXML
-    private void handleBack(ActionEvent event) throws java.io.IOException {
-        javafx.scene.Parent mainView = javafx.fxml.FXMLLoader.load(getClass().getResource("/fxml/dashboard_view.fxml"));
-        javafx.stage.Stage stage = (javafx.stage.Stage)((javafx.scene.Node)event.getSource()).getScene().getWindow();
-        stage.getScene().setRoot(mainView);
+    private void handleAutoWhiteBalance() {
+        addMeasuredEffect("Auto White Balance", AutoAdjust::whiteBalance);
     }
 
-    // ============================================================
-    // FILTER IMPLEMENTATIONS
-    // ============================================================
-
-    private Image grayscale(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader();
-        PixelWriter wtr = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = r.getColor(x, y);
-                double g = (c.getRed() + c.getGreen() + c.getBlue()) / 3.0;
-                wtr.setColor(x, y, new javafx.scene.paint.Color(g, g, g, c.getOpacity()));
-            }
-        return out;
-    }
-
-    private Image invert(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader();
-        PixelWriter wtr = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = r.getColor(x, y);
-                wtr.setColor(x, y, new javafx.scene.paint.Color(1-c.getRed(), 1-c.getGreen(), 1-c.getBlue(), c.getOpacity()));
-            }
-        return out;
-    }
-
-    private Image sepia(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader();
-        PixelWriter wtr = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = r.getColor(x, y);
-                double tr = Math.min(0.393*c.getRed() + 0.769*c.getGreen() + 0.189*c.getBlue(), 1.0);
-                double tg = Math.min(0.349*c.getRed() + 0.686*c.getGreen() + 0.168*c.getBlue(), 1.0);
-                double tb = Math.min(0.272*c.getRed() + 0.534*c.getGreen() + 0.131*c.getBlue(), 1.0);
-                wtr.setColor(x, y, new javafx.scene.paint.Color(tr, tg, tb, c.getOpacity()));
-            }
-        return out;
+    /** Appends a node whose parameters are measured from the histogram of the current result. */
+    private void addMeasuredEffect(String name, Function<ImageStatistics, double[]> measure) {
+        endAdjustSession();
+        if (editStack == null || stackStats == null || stackStats.count() == 0) return;
+        pushUndo();
+        Effect effect = new Effect(name, EffectKernels.categoryOf(name), 1.0);
+        effect.setParameters(measure.apply(stackStats));
+        editStack.effects().add(effect);
+        refreshStackView();
+        effectStackView.getSelectionModel().selectLast();
+        renderStack();
     }
 
-    private Image rgbFilter(Image img) {
-        return tint(img, 1.2, 0.8, 0.8);
+    // ---------- ZOOM / PAN ----------
+    /** Full-resolution pixel bounds of the visible part of the image: {x0, y0, x1, y1}. */
+    private int[] visibleRegion() {
+        double iw = sourceStore.getWidth(), ih = sourceStore.getHeight();
+        double vw = iw / zoom, vh = ih / zoom;
+        int x0 = (int) Math.floor(centerX * iw - vw / 2), y0 = (int) Math.floor(centerY * ih - vh / 2);
+        return new int[]{Math.max(0, x0), Math.max(0, y0),
+                (int) Math.min(iw, Math.ceil(x0 + vw)), (int) Math.min(ih, Math.ceil(y0 + vh))};
     }
 
-    private Image blur(Image img) {
-        return convolve(img, new double[][]{
-                {1/9f,1/9f,1/9f},
-                {1/9f,1/9f,1/9f},
-                {1/9f,1/9f,1/9f}
-        });
+    private void zoomBy(double factor) {
+        if (editStack == null) return;
+        double next = Math.max(1, Math.min(MAX_ZOOM, zoom * factor));
+        if (next == zoom) return;
+        endAdjustSession();
+        zoom = next;
+        clampCenter();
+        viewDebounce.playFromStart();
     }
 
-    private Image sharpen(Image img) {
-        return convolve(img, new double[][]{
-                {0,-1,0},
-                {-1,5,-1},
-                {0,-1,0}
-        });
+    /** Pans by a drag distance in view pixels. */
+    private void panBy(double dx, double dy) {
+        if (editStack == null || zoom <= 1) return;
+        endAdjustSession();
+        double shown = imageView.getBoundsInLocal().getWidth();
+        if (shown <= 0) return;
+        // One view pixel covers (1 / zoom) / shown of the image width
+        centerX += dx / shown / zoom;
+        centerY += dy / imageView.getBoundsInLocal().getHeight() / zoom;
+        clampCenter();
+        viewDebounce.playFromStart();
     }
 
-    private Image edgeDetect(Image img) {
-        return convolve(img, new double[][]{
-                {-1,-1,-1},
-                {-1,8,-1},
-                {-1,-1,-1}
+    private void clampCenter() {
+        double half = 0.5 / zoom;
+        centerX = Math.max(half, Math.min(1 - half, centerX));
+        centerY = Math.max(half, Math.min(1 - half, centerY));
+    }
+
+    // ---------- EDIT STACK ----------
+    private BooleanProperty enabledProperty(Effect effect) {
+        return enabledProperties.computeIfAbsent(effect, e -> {
+            BooleanProperty enabled = new SimpleBooleanProperty(e.isEnabled());
+            enabled.addListener((_, _, on) -> {
+                if (on == e.isEnabled()) return;
+                endAdjustSession();
+                pushUndo();
+                e.setEnabled(on);
+                renderStack();
+            });
+            return enabled;
         });
     }
 
-    private Image posterize(Image img) {
-        int levels = 4;
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader();
-        PixelWriter pw = out.getPixelWriter();
+    private void refreshStackView() {
+        enabledProperties.clear();
+        if (editStack == null) effectStackView.getItems().clear();
+        else effectStackView.getItems().setAll(editStack.effects());
+    }
 
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
+    private void syncIntensitySlider(Effect effect) {
+        intensityEdited = null;
+        syncingIntensity = true;
+        intensitySlider.setDisable(effect == null);
+        if (effect != null) {
+            // Brightness/contrast nodes store the slider value itself, everything else a 0..1 blend
+            boolean adjust = effect.getName().equals("Brightness") || effect.getName().equals("Contrast");
+            intensitySlider.setMin(adjust ? 0.5 : 0);
+            intensitySlider.setMax(adjust ? 1.5 : 1);
+            intensitySlider.setValue(effect.getIntensity());
+        }
+        syncingIntensity = false;
+    }
 
-                // ✅ Safe calculation (never goes above 1.0)
-                double rVal = Math.floor(c.getRed() * levels) / levels;
-                double gVal = Math.floor(c.getGreen() * levels) / levels;
-                double bVal = Math.floor(c.getBlue() * levels) / levels;
+    private void onIntensityChanged(double value) {
+        if (syncingIntensity) return;
+        Effect effect = effectStackView.getSelectionModel().getSelectedItem();
+        if (effect == null) return;
+        if (intensityEdited != effect) {
+            endAdjustSession();
+            pushUndo();
+            intensityEdited = effect;
+        }
+        effect.setIntensity(value);
+        effectStackView.refresh();
+        intensityDebounce.playFromStart();
+    }
 
-                // ✅ Clamp to avoid floating-point rounding overflow
-                rVal = Math.min(1.0, Math.max(0.0, rVal));
-                gVal = Math.min(1.0, Math.max(0.0, gVal));
-                bVal = Math.min(1.0, Math.max(0.0, bVal));
+    // ---------- UNDO / REDO ----------
+    @FXML private void handleUndo() {
+        renderQueue.cancel();
+        endAdjustSession();
+        if (editStack != null && !undoStack.isEmpty()) {
+            redoStack.push(editStack.snapshot());
+            editStack.restore(undoStack.pop());
+            refreshStackView();
+            renderStack();
+        }
+    }
 
-                pw.setColor(x, y, new javafx.scene.paint.Color(rVal, gVal, bVal, c.getOpacity()));
-            }
+    @FXML private void handleRedo() {
+        renderQueue.cancel();
+        endAdjustSession();
+        if (editStack != null && !redoStack.isEmpty()) {
+            undoStack.push(editStack.snapshot());
+            editStack.restore(redoStack.pop());
+            refreshStackView();
+            renderStack();
         }
+    }
 
-        return out;
+    /**
+     * Starts a full-resolution and a proxy stack over sourceStore, closing the previous ones
+     * so their off-heap buffers are freed now rather than whenever the GC notices.
+     */
+    private void openStacks() {
+        closeStacks(null);
+        editStack = new EditStack(sourceStore);
+        previewStack = new EditStack(sourceStore,
+                (int) Math.ceil(imageView.getFitWidth() * outputScale()),
+                (int) Math.ceil(imageView.getFitHeight() * outputScale()));
     }
 
+    /** Closes the stacks and the source store of the current image, if any. */
+    private void closeImage() {
+        // An export still reading the store closes it when done
+        boolean exporting = sourceStore != null && sourceStore == exportSource;
+        if (exporting) closeExportSource = true;
+        closeStacks(exporting ? null : sourceStore);
+        sourceStore = null;
+        originalImage = stackImage = null;
+        stackStats = null;
+    }
 
-    private Image emboss(Image img) {
-        return convolve(img, new double[][]{
-                {-2,-1,0},
-                {-1,1,1},
-                {0,1,2}
+    /**
+     * Closes the stacks, and then {@code store} if not null, on the render thread: a render still
+     * reading them (cancelled, but maybe not at a cancellation check yet) finishes first, and
+     * the FX thread does not wait for it.
+     */
+    private void closeStacks(TiledImageStore store) {
+        EditStack edit = editStack, preview = previewStack;
+        editStack = previewStack = null;
+        renderQueue.runAfter(() -> {
+            if (edit != null) edit.close();
+            if (preview != null) preview.close();
+            closeStore(store);
         });
     }
 
-    private Image vignette(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        double cx = w / 2.0, cy = h / 2.0, maxDist = Math.sqrt(cx*cx + cy*cy);
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                double dist = Math.sqrt(Math.pow(x - cx, 2) + Math.pow(y - cy, 2)) / maxDist;
-                double factor = 1 - Math.pow(dist, 2.2);
-                pw.setColor(x, y, c.darker().interpolate(c, factor));
-            }
-        return out;
-    }
-
-    private Image warmTone(Image img) { return tint(img, 1.1, 1.0, 0.9); }
-    private Image coolTone(Image img) { return tint(img, 0.9, 1.0, 1.1); }
-
-    private Image noise(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                double n = (Math.random() - 0.5) * 0.08;
-                pw.setColor(x, y, new javafx.scene.paint.Color(
-                        clamp(c.getRed() + n),
-                        clamp(c.getGreen() + n),
-                        clamp(c.getBlue() + n),
-                        c.getOpacity()));
-            }
-        return out;
-    }
-
-    private Image pixelate(Image img) {
-        int block = 8;
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int by = 0; by < h; by += block)
-            for (int bx = 0; bx < w; bx += block) {
-                double r=0,g=0,b=0; int count=0;
-                for (int y = by; y < by+block && y<h; y++)
-                    for (int x = bx; x < bx+block && x<w; x++) {
-                        javafx.scene.paint.Color c = pr.getColor(x, y);
-                        r+=c.getRed(); g+=c.getGreen(); b+=c.getBlue(); count++;
-                    }
-                javafx.scene.paint.Color avg = new javafx.scene.paint.Color(r/count, g/count, b/count, 1);
-                for (int y = by; y < by+block && y<h; y++)
-                    for (int x = bx; x < bx+block && x<w; x++)
-                        pw.setColor(x, y, avg);
-            }
-        return out;
-    }
-
-    private Image tintRed(Image img) { return tint(img, 1.1, 0.9, 0.9); }
-    private Image tintBlue(Image img){ return tint(img, 0.9, 0.9, 1.1); }
-
-    private Image desaturate(Image img) {
-        int w = (int)img.getWidth(), h = (int)img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                double gray = (c.getRed() + c.getGreen() + c.getBlue()) / 3;
-                javafx.scene.paint.Color outC = c.interpolate(new javafx.scene.paint.Color(gray, gray, gray, 1), 0.5);
-                pw.setColor(x, y, outC);
-            }
-        return out;
-    }
-
-    private Image highlightBoost(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                if (c.getBrightness() > 0.6)
-                    c = c.brighter();
-                pw.setColor(x, y, c);
-            }
-        return out;
+    private void pushUndo() {
+        if (editStack == null) return;
+        undoStack.push(editStack.snapshot());
+        redoStack.clear();
     }
 
-    private Image fade(Image img) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                pw.setColor(x, y, c.interpolate(javafx.scene.paint.Color.WHITE, 0.2));
-            }
-        return out;
-    }
-
-    private Image tint(Image img, double rFac, double gFac, double bFac) {
-        int w = (int) img.getWidth(), h = (int) img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader pr = img.getPixelReader(); PixelWriter pw = out.getPixelWriter();
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++) {
-                javafx.scene.paint.Color c = pr.getColor(x, y);
-                pw.setColor(x, y, new javafx.scene.paint.Color(
-                        clamp(c.getRed()*rFac),
-                        clamp(c.getGreen()*gFac),
-                        clamp(c.getBlue()*bFac),
-                        c.getOpacity()));
-            }
-        return out;
-    }
-
-    private Image convolve(Image img, double[][] kernel) {
-        int kw = kernel[0].length, kh = kernel.length;
-        int kHalfW = kw/2, kHalfH = kh/2;
-        int w = (int)img.getWidth(), h = (int)img.getHeight();
-        WritableImage out = new WritableImage(w, h);
-        PixelReader r = img.getPixelReader();
-        PixelWriter wtr = out.getPixelWriter();
-
-        for (int y = 0; y < h; y++) for (int x = 0; x < w; x++) {
-            double rr=0,gg=0,bb=0;
-            for (int ky = 0; ky < kh; ky++) {
-                int iy = y + ky - kHalfH; if (iy < 0 || iy >= h) continue;
-                for (int kx = 0; kx < kw; kx++) {
-                    int ix = x + kx - kHalfW; if (ix < 0 || ix >= w) continue;
-                    double kval = kernel[ky][kx];
-                    javafx.scene.paint.Color c = r.getColor(ix, iy);
-                    rr += c.getRed()*kval;
-                    gg += c.getGreen()*kval;
-                    bb += c.getBlue()*kval;
-                }
+    // ---------- RESET ----------
+    @FXML
+    private void handleReset() {
+        renderQueue.cancel();
+        endAdjustSession();
+        if (editStack != null) {
+            openStacks();
+            zoom = 1;
+            centerX = centerY = 0.5;
+            stackImage = originalImage;
+            imageView.setImage(originalImage);
+            undoStack.clear();
+            redoStack.clear();
+            refreshStackView();
+        }
+        effectSelector.setValue(null);
+    }
+
+    // ---------- LIVE ADJUSTMENTS ----------
+    private void onAdjustChanged() {
+        if (syncingSliders || editStack == null) return;
+        if (adjustBase == null) {
+            Image base = stackImage;
+            if (base == null) return;
+            adjustBase = base;
+            int pw = (int) Math.ceil(imageView.getFitWidth() * outputScale());
+            int ph = (int) Math.ceil(imageView.getFitHeight() * outputScale());
+            adjustProxy = CompletableFuture.supplyAsync(() -> ImageProxy.fit(base, pw, ph), PixelEngine.pool());
+        }
+        // Throttle, not debounce: a preview goes out every frame while the drag continues
+        if (previewThrottle.getStatus() != Animation.Status.RUNNING)
+            previewThrottle.playFromStart();
+        if (brightnessSlider.isValueChanging() || contrastSlider.isValueChanging()) settleDebounce.stop();
+        else settleDebounce.playFromStart();
+    }
+
+    private void renderAdjustPreview() {
+        if (adjustBase == null || isIdentityAdjust()) return;
+        CompletableFuture<ArgbImage> proxy = adjustProxy;
+        PixelKernel kernel = EffectKernels.adjust(brightnessSlider.getValue(), contrastSlider.getValue());
+        renderQueue.submit(monitor -> PixelEngine.run(proxy.get(), kernel, monitor).toImage(),
+                out -> imageView.setImage(out));
+    }
+
+    /**
+     * Commits the sliders as a Contrast and a Brightness node at the end of the stack
+     * (one undo step per session) and renders; the fused pair costs a single pass over the cached image below.
+     */
+    private void renderAdjustFull() {
+        if (adjustBase == null) return;
+        previewThrottle.stop();
+        List<Effect> effects = editStack.effects();
+        if (isIdentityAdjust()) {
+            // Back to neutral: drop the nodes and the undo entry they created
+            if (adjustContrast != null) {
+                effects.remove(adjustContrast);
+                effects.remove(adjustBrightness);
+                adjustContrast = adjustBrightness = null;
+                undoStack.pop();
+                refreshStackView();
             }
-            rr = clamp(rr); gg = clamp(gg); bb = clamp(bb);
-            wtr.setColor(x, y, new javafx.scene.paint.Color(rr, gg, bb, 1.0));
+            renderStack();
+            return;
+        }
+        if (adjustContrast == null) {
+            pushUndo();
+            adjustContrast = new Effect("Contrast", EffectKernels.categoryOf("Contrast"), 1);
+            adjustBrightness = new Effect("Brightness", EffectKernels.categoryOf("Brightness"), 1);
+            effects.add(adjustContrast);
+            effects.add(adjustBrightness);
         }
-        return out;
+        adjustContrast.setIntensity(contrastSlider.getValue());
+        adjustBrightness.setIntensity(brightnessSlider.getValue());
+        refreshStackView();
+        renderStack();
+    }
+
+    private boolean isIdentityAdjust() {
+        return Math.abs(brightnessSlider.getValue() - 1) < 0.005 && Math.abs(contrastSlider.getValue() - 1) < 0.005;
+    }
+
+    private double outputScale() {
+        if (imageView.getScene() == null || imageView.getScene().getWindow() == null) return 1;
+        return imageView.getScene().getWindow().getOutputScaleX();
+    }
+
+    /**
+     * Keeps the committed adjustment nodes in the stack and parks the sliders back at neutral.
+     * A proxy preview that never got its full render is replaced by the last stack render.
+     */
+    private void endAdjustSession() {
+        previewThrottle.stop();
+        settleDebounce.stop();
+        if (stackImage != null && imageView.getImage() != stackImage)
+            imageView.setImage(stackImage);
+        adjustBase = null;
+        adjustProxy = null;
+        adjustContrast = adjustBrightness = null;
+        syncingSliders = true;
+        brightnessSlider.setValue(1);
+        contrastSlider.setValue(1);
+        syncingSliders = false;
     }
 
-    private double clamp(double v) {
-        return Math.max(0, Math.min(v, 1));
+    // ---------- NAVIGATION ----------
+    @FXML
+    private void handleBack(ActionEvent event) throws java.io.IOException {
+        javafx.scene.Parent mainView = javafx.fxml.FXMLLoader.load(getClass().getResource("/fxml/dashboard_view.fxml"));
+        javafx.stage.Stage stage = (javafx.stage.Stage)((javafx.scene.Node)event.getSource()).getScene().getWindow();
+        stage.getScene().setRoot(mainView);
     }
 }
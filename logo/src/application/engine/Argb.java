@@ -0,0 +1,34 @@
+package application.engine;
+
+/**
+ * Bit helpers for packed non-premultiplied ARGB ints.
+ */
+public final class Argb {
+
+    private Argb() { }
+
+    public static int alpha(int p) { return p >>> 24; }
+    public static int red(int p)   { return (p >> 16) & 0xFF; }
+    public static int green(int p) { return (p >> 8) & 0xFF; }
+    public static int blue(int p)  { return p & 0xFF; }
+
+    public static int pack(int a, int r, int g, int b) {
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /** Clamps a channel value into 0..255. */
+    public static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /** Moves each channel (alpha included) of {@code from} towards {@code to} by t / 256. */
+    public static int lerp(int from, int to, int t) {
+        return pack(mix(alpha(from), alpha(to), t), mix(red(from), red(to), t),
+                mix(green(from), green(to), t), mix(blue(from), blue(to), t));
+    }
+
+    /** One channel of {@link #lerp}: v + (target - v) * t / 256, rounded. */
+    static int mix(int v, int target, int t) {
+        return v + (((target - v) * t + 128) >> 8);
+    }
+}
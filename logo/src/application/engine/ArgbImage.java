@@ -0,0 +1,116 @@
+package application.engine;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+
+/**
+ * Packed int-ARGB pixel buffer used by the filter engine.
+ * Pixels are stored row-major and non-premultiplied, one int per pixel,
+ * so effects can work on plain ints instead of allocating a Color per pixel.
+ * <p>
+ * A buffer can also be a window onto a larger image (see {@link #window}): kernels then run in the
+ * window's own coordinates, and the few whose result depends on where a pixel sits in the whole
+ * image (vignette, noise, pixelate cells, bilateral cells) add {@link #originX()} / {@link #originY()}
+ * and use {@link #fullWidth()} / {@link #fullHeight()}. For a whole image the origin is 0, 0.
+ */
+public final class ArgbImage {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final int originX, originY, fullWidth, fullHeight;
+
+    public ArgbImage(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public ArgbImage(int width, int height, int[] pixels) {
+        this(width, height, pixels, 0, 0, width, height);
+    }
+
+    private ArgbImage(int width, int height, int[] pixels, int originX, int originY, int fullWidth, int fullHeight) {
+        if (pixels.length < width * height)
+            throw new IllegalArgumentException("Pixel array too small for " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.originX = originX;
+        this.originY = originY;
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+    }
+
+    /**
+     * Blank buffer for the region [x0, x1) x [y0, y1) of a fullWidth x fullHeight image.
+     */
+    public static ArgbImage window(int x0, int y0, int x1, int y1, int fullWidth, int fullHeight) {
+        checkWindow(x0, y0, x1, y1, fullWidth, fullHeight);
+        return window(new int[(x1 - x0) * (y1 - y0)], x0, y0, x1, y1, fullWidth, fullHeight);
+    }
+
+    /** Window over an existing array, e.g. a strip buffer reused across reads. */
+    static ArgbImage window(int[] pixels, int x0, int y0, int x1, int y1, int fullWidth, int fullHeight) {
+        checkWindow(x0, y0, x1, y1, fullWidth, fullHeight);
+        return new ArgbImage(x1 - x0, y1 - y0, pixels, x0, y0, fullWidth, fullHeight);
+    }
+
+    private static void checkWindow(int x0, int y0, int x1, int y1, int fullWidth, int fullHeight) {
+        if (x0 < 0 || y0 < 0 || x1 > fullWidth || y1 > fullHeight || x1 <= x0 || y1 <= y0)
+            throw new IllegalArgumentException("Window [" + x0 + ", " + y0 + ", " + x1 + ", " + y1
+                    + ") outside " + fullWidth + "x" + fullHeight);
+    }
+
+    /**
+     * Reads the whole image in one bulk getPixels call.
+     * @param img JavaFX image (must be fully loaded)
+     * @return ARGB copy of the image
+     */
+    public static ArgbImage of(Image img) {
+        int w = (int) img.getWidth(), h = (int) img.getHeight();
+        PixelReader reader = img.getPixelReader();
+        if (reader == null)
+            throw new IllegalArgumentException("Image has no pixel reader (still loading?)");
+        int[] data = new int[w * h];
+        reader.getPixels(0, 0, w, h, WritablePixelFormat.getIntArgbInstance(), data, 0, w);
+        return new ArgbImage(w, h, data);
+    }
+
+    /**
+     * Writes the buffer into a new WritableImage with a single setPixels call.
+     */
+    public WritableImage toImage() {
+        WritableImage out = new WritableImage(width, height);
+        out.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return out;
+    }
+
+    /**
+     * Writes the region [x0, x1) x [y0, y1) into a new WritableImage of that size (e.g. the visible viewport).
+     */
+    public WritableImage toImage(int x0, int y0, int x1, int y1) {
+        WritableImage out = new WritableImage(x1 - x0, y1 - y0);
+        out.getPixelWriter().setPixels(0, 0, x1 - x0, y1 - y0, PixelFormat.getIntArgbInstance(),
+                pixels, y0 * width + x0, width);
+        return out;
+    }
+
+    public ArgbImage copy() {
+        return new ArgbImage(width, height, pixels.clone(), originX, originY, fullWidth, fullHeight);
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** Column of the full image this buffer's x = 0 corresponds to. */
+    public int originX() { return originX; }
+    /** Row of the full image this buffer's y = 0 corresponds to. */
+    public int originY() { return originY; }
+    public int fullWidth() { return fullWidth; }
+    public int fullHeight() { return fullHeight; }
+
+    /** Backing array, row-major with a stride of {@link #getWidth()}. */
+    public int[] pixels() { return pixels; }
+}
@@ -0,0 +1,58 @@
+package application.engine;
+
+import application.engine.ImageStatistics.Channel;
+
+/**
+ * One-click corrections derived from {@link ImageStatistics}. Each returns the parameters of an
+ * edit stack node (stored on the Effect, so the node renders the same at any resolution and after undo);
+ * {@link EffectKernels#forEffect(String, double, double[])} turns them into a lookup-table pass.
+ */
+public final class AutoAdjust {
+
+    /** Fraction of pixels auto levels lets clip at each end of every channel. */
+    private static final double CLIP = 0.005;
+    /** Narrowest input range auto levels stretches, so flat images are not blown into noise. */
+    private static final int MIN_RANGE = 32;
+    /** White balance gains are kept within [1 / MAX_GAIN, MAX_GAIN]. */
+    private static final double MAX_GAIN = 2;
+
+    private AutoAdjust() { }
+
+    /**
+     * Auto levels: each channel's 0.5% and 99.5% percentiles become black and white.
+     * @return {rLow, rHigh, gLow, gHigh, bLow, bHigh}
+     */
+    public static double[] levels(ImageStatistics stats) {
+        Channel[] channels = {Channel.RED, Channel.GREEN, Channel.BLUE};
+        double[] ranges = new double[6];
+        for (int c = 0; c < 3; c++) {
+            int low = stats.percentile(channels[c], CLIP), high = stats.percentile(channels[c], 1 - CLIP);
+            if (high - low < MIN_RANGE) {
+                // Widen around the middle of the range, staying inside 0..255
+                int mid = (low + high) / 2;
+                low = Math.max(0, Math.min(255 - MIN_RANGE, mid - MIN_RANGE / 2));
+                high = low + MIN_RANGE;
+            }
+            ranges[2 * c] = low;
+            ranges[2 * c + 1] = high;
+        }
+        return ranges;
+    }
+
+    /**
+     * Gray-world white balance: scales each channel so the three channel means meet at their average.
+     * @return {rGain, gGain, bGain}
+     */
+    public static double[] whiteBalance(ImageStatistics stats) {
+        double r = stats.mean(Channel.RED), g = stats.mean(Channel.GREEN), b = stats.mean(Channel.BLUE);
+        double gray = (r + g + b) / 3;
+        return new double[]{gain(gray, r), gain(gray, g), gain(gray, b)};
+    }
+
+    private static double gain(double target, double mean) {
+        if (mean <= 0) return 1;
+        double g = Math.max(1 / MAX_GAIN, Math.min(MAX_GAIN, target / mean));
+        // Rounded so nearby statistics share one cached table
+        return Math.round(g * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,194 @@
+package application.engine;
+
+import static application.engine.Argb.*;
+
+/**
+ * Edge-preserving filters on a bilateral grid (Chen, Paris and Durand, 2007).
+ * Pixels are splatted into a coarse 3-D grid indexed by position (one cell per sigmaSpatial pixels)
+ * and luma (one cell per sigmaRange levels); the grid is blurred with a 5-tap binomial in all three
+ * directions and sampled back per pixel by trilinear interpolation at the pixel's own position and luma.
+ * Pixels on the far side of an edge land in distant luma cells, so they do not bleed across it.
+ * The grid is tiny compared to the image, so the cost per pixel is a splat and a slice whatever the radius.
+ * <p>
+ * Cells sit on a lattice over the full image (windows add their origin) and each tile builds the
+ * cells its slice reads from every pixel that falls in them, so tiles agree exactly at their seams.
+ */
+public final class BilateralGrid {
+
+    private BilateralGrid() { }
+
+    /**
+     * Edge-aware smoothing: each colour becomes the average of nearby pixels of similar luma.
+     * @param sigmaSpatial cell size in pixels (roughly the smoothing radius)
+     * @param sigmaRange   cell depth in luma levels; edges stronger than this are kept
+     */
+    public static PixelKernel smooth(int sigmaSpatial, int sigmaRange) {
+        int ss = Math.max(1, sigmaSpatial), sr = Math.max(1, sigmaRange);
+        return PixelKernel.spatial(halo(ss), 1, (src, dst, x0, y0, x1, y1) -> {
+            Grid grid = new Grid(src, x0, y0, x1, y1, ss, sr, 4);
+            int ox = src.originX(), oy = src.originY();
+            int[] in = src.pixels(), out = dst.pixels();
+            int w = src.getWidth();
+            float[] v = new float[4];
+            for (int y = y0; y < y1; y++)
+                for (int x = x0, i = y * w + x0; x < x1; x++, i++) {
+                    int p = in[i];
+                    grid.slice(x + ox, y + oy, luma(p), v);
+                    float norm = 1 / v[3];
+                    out[i] = (p & 0xFF000000) | (round(v[0] * norm) << 16) | (round(v[1] * norm) << 8) | round(v[2] * norm);
+                }
+        });
+    }
+
+    /**
+     * Local tone mapping that lifts bright regions: the grid's smoothed luma is the base layer, and
+     * base levels above mid-grey are raised towards white along a smooth curve while the detail
+     * (luma minus base) is kept and slightly amplified. Textures inside highlights therefore keep
+     * their contrast, unlike a per-pixel brighten above a threshold.
+     * @param amount how far the brightest base levels move towards white (0..1)
+     * @param detail gain applied to the detail layer (1 keeps it unchanged)
+     */
+    public static PixelKernel highlightBoost(int sigmaSpatial, int sigmaRange, double amount, double detail) {
+        int ss = Math.max(1, sigmaSpatial), sr = Math.max(1, sigmaRange);
+        // Base-layer curve as a table: lift(b) = amount * (255 - b) * smoothstep((b - 128) / 127)
+        float[] lift = new float[256];
+        for (int b = 0; b < 256; b++) {
+            double t = Math.max(0, (b - 128) / 127.0);
+            lift[b] = (float) (amount * (255 - b) * t * t * (3 - 2 * t));
+        }
+        float detailGain = (float) (detail - 1);
+        return PixelKernel.spatial(halo(ss), 1, (src, dst, x0, y0, x1, y1) -> {
+            Grid grid = new Grid(src, x0, y0, x1, y1, ss, sr, 2);
+            int ox = src.originX(), oy = src.originY();
+            int[] in = src.pixels(), out = dst.pixels();
+            int w = src.getWidth();
+            float[] v = new float[2];
+            for (int y = y0; y < y1; y++)
+                for (int x = x0, i = y * w + x0; x < x1; x++, i++) {
+                    int p = in[i], l = luma(p);
+                    grid.slice(x + ox, y + oy, l, v);
+                    float base = v[0] / v[1];
+                    int b = Math.max(0, Math.min(255, (int) base));
+                    float f = base - b;
+                    float boost = b < 255 ? lift[b] + f * (lift[b + 1] - lift[b]) : lift[255];
+                    int delta = Math.round(boost + detailGain * (l - base));
+                    out[i] = (p & 0xFF000000) | (clamp(red(p) + delta) << 16) | (clamp(green(p) + delta) << 8) | clamp(blue(p) + delta);
+                }
+        });
+    }
+
+    /** Pixels a tile's grid reaches beyond the tile: 2 blur cells, 1 slice cell and the half-cell offset. */
+    private static int halo(int ss) {
+        return 4 * ss;
+    }
+
+    private static int luma(int p) {
+        return (77 * red(p) + 150 * green(p) + 29 * blue(p) + 128) >> 8;
+    }
+
+    private static int round(float v) {
+        int i = (int) (v + 0.5f);
+        return i < 0 ? 0 : (i > 255 ? 255 : i);
+    }
+
+    /**
+     * The grid cells one tile needs, splatted, blurred and ready to slice.
+     * Channels are {r, g, b, weight} or {luma, weight}, interleaved per cell.
+     * Cell and slice coordinates are in full-image pixels.
+     */
+    private static final class Grid {
+        /** Cells padded on each side of the luma axis so the blur never reads outside. */
+        private static final int PAD = 2;
+
+        private final int ss, sr, ch;
+        private final int cx0, cy0, nx, ny, nz;
+        private final float[] data;
+
+        Grid(ArgbImage src, int x0, int y0, int x1, int y1, int ss, int sr, int ch) {
+            this.ss = ss;
+            this.sr = sr;
+            this.ch = ch;
+            // Cells the slice of [x0, x1) touches, plus the blur's reach of two cells each side
+            int ox = src.originX(), oy = src.originY();
+            cx0 = cellFloor(x0 + ox) - 2;
+            cy0 = cellFloor(y0 + oy) - 2;
+            nx = cellFloor(x1 - 1 + ox) + 1 + 2 - cx0 + 1;
+            ny = cellFloor(y1 - 1 + oy) + 1 + 2 - cy0 + 1;
+            nz = 255 / sr + 1 + 2 * PAD;
+            data = new float[nx * ny * nz * ch];
+            splat(src);
+            blur();
+        }
+
+        /** Floor of the continuous cell coordinate of pixel centre x (cell i is centred on pixel (i + 0.5) * ss - 0.5). */
+        private int cellFloor(int x) {
+            return Math.floorDiv(2 * x + 1 - ss, 2 * ss);
+        }
+
+        private void splat(ArgbImage src) {
+            int[] in = src.pixels();
+            int w = src.getWidth(), ox = src.originX(), oy = src.originY();
+            // Full-image pixels of the grid's cells that this buffer holds
+            int px0 = Math.max(ox, cx0 * ss), px1 = Math.min(ox + w, (cx0 + nx) * ss);
+            int py0 = Math.max(oy, cy0 * ss), py1 = Math.min(oy + src.getHeight(), (cy0 + ny) * ss);
+            int half = sr / 2;
+            for (int y = py0; y < py1; y++) {
+                int row = (y / ss - cy0) * nx;
+                for (int x = px0, i = (y - oy) * w + px0 - ox; x < px1; x++, i++) {
+                    int p = in[i], l = luma(p);
+                    int o = ((row + x / ss - cx0) * nz + (l + half) / sr + PAD) * ch;
+                    if (ch == 4) {
+                        data[o] += red(p);
+                        data[o + 1] += green(p);
+                        data[o + 2] += blue(p);
+                        data[o + 3] += 1;
+                    } else {
+                        data[o] += l;
+                        data[o + 1] += 1;
+                    }
+                }
+            }
+        }
+
+        /** 1-4-6-4-1 binomial along z, x and y; cells past the grid count as empty. */
+        private void blur() {
+            int zStride = ch, xStride = nz * ch, yStride = nx * nz * ch;
+            float[] line = new float[Math.max(nz, Math.max(nx, ny)) + 4];
+            for (int y = 0; y < ny; y++)
+                for (int x = 0; x < nx; x++)
+                    for (int c = 0; c < ch; c++) blurLine(((y * nx + x) * nz) * ch + c, zStride, nz, line);
+            for (int y = 0; y < ny; y++)
+                for (int z = 0; z < nz; z++)
+                    for (int c = 0; c < ch; c++) blurLine((y * nx * nz + z) * ch + c, xStride, nx, line);
+            for (int x = 0; x < nx; x++)
+                for (int z = 0; z < nz; z++)
+                    for (int c = 0; c < ch; c++) blurLine((x * nz + z) * ch + c, yStride, ny, line);
+        }
+
+        private void blurLine(int start, int stride, int n, float[] line) {
+            line[0] = line[1] = line[n + 2] = line[n + 3] = 0;
+            for (int k = 0, o = start; k < n; k++, o += stride) line[k + 2] = data[o];
+            for (int k = 0, o = start; k < n; k++, o += stride)
+                data[o] = (line[k] + 4 * line[k + 1] + 6 * line[k + 2] + 4 * line[k + 3] + line[k + 4]) * (1 / 16f);
+        }
+
+        /** Trilinear sample of every channel at pixel (x, y) with luma l. */
+        void slice(int x, int y, int l, float[] out) {
+            // Fractions come from the global cell coordinate, so every tile interpolates with the same weights
+            float gx = (x + 0.5f) / ss - 0.5f, gy = (y + 0.5f) / ss - 0.5f, fz = (float) l / sr + PAD;
+            int cx = (int) Math.floor(gx), cy = (int) Math.floor(gy), iz = (int) fz;
+            float tx = gx - cx, ty = gy - cy, tz = fz - iz;
+            int ix = cx - cx0, iy = cy - cy0;
+            for (int c = 0; c < ch; c++) out[c] = 0;
+            for (int dy = 0; dy < 2; dy++) {
+                float wy = dy == 0 ? 1 - ty : ty;
+                for (int dx = 0; dx < 2; dx++) {
+                    float wxy = wy * (dx == 0 ? 1 - tx : tx);
+                    int o = (((iy + dy) * nx + ix + dx) * nz + iz) * ch;
+                    float w0 = wxy * (1 - tz), w1 = wxy * tz;
+                    for (int c = 0; c < ch; c++) out[c] += w0 * data[o + c] + w1 * data[o + ch + c];
+                }
+            }
+        }
+    }
+}
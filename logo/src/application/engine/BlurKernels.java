@@ -0,0 +1,207 @@
+package application.engine;
+
+/**
+ * Variable-radius blurs built from running-sum box filters.
+ * Each box pass costs O(1) per pixel whatever the radius; a Gaussian is
+ * approximated by three box passes in each direction. A single box is read straight
+ * from {@link IntegralImage} tables. Edges repeat the border pixel.
+ * Used by ImageController (blur slider) and PhotoEditorController.
+ */
+public final class BlurKernels {
+
+    private BlurKernels() { }
+
+    /** Rows per summed-area table, so table size stays bounded whatever the tile height. */
+    private static final int BAND = 64;
+
+    /**
+     * Plain box blur over a (2r+1) x (2r+1) window: each output pixel is four lookups per
+     * channel into summed-area tables over the tile's rows plus the halo.
+     */
+    public static PixelKernel box(int radius) {
+        int r = Math.max(0, radius);
+        if (r == 0) return (src, dst, x0, y0, x1, y1) -> copy(src, dst, x0, y0, x1, y1);
+        int count = (2 * r + 1) * (2 * r + 1), half = count / 2;
+        return PixelKernel.spatial(r, 1, (src, dst, x0, y0, x1, y1) -> {
+            int[] out = dst.pixels();
+            int w = src.getWidth();
+            for (int by = y0; by < y1; by += BAND) {
+                int by1 = Math.min(y1, by + BAND);
+                IntegralImage sat = IntegralImage.of(src, x0 - r, by - r, x1 + r, by1 + r);
+                int span = 2 * r + 1, down = span * sat.stride;
+                for (int y = by; y < by1; y++) {
+                    int o = y * w + x0;
+                    for (int i00 = sat.index(x0 - r, y - r), end = i00 + (x1 - x0); i00 < end; i00++, o++) {
+                        int i01 = i00 + span, i10 = i00 + down, i11 = i10 + span;
+                        out[o] = Argb.pack(IntegralImage.div(IntegralImage.sum(sat.a, i00, i01, i10, i11), count, half),
+                                IntegralImage.div(IntegralImage.sum(sat.r, i00, i01, i10, i11), count, half),
+                                IntegralImage.div(IntegralImage.sum(sat.g, i00, i01, i10, i11), count, half),
+                                IntegralImage.div(IntegralImage.sum(sat.b, i00, i01, i10, i11), count, half));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Gaussian blur with the given standard deviation (in pixels), built from three box passes.
+     */
+    public static PixelKernel gaussian(double sigma) {
+        return separableBoxes(boxRadiiForGauss(sigma, 3));
+    }
+
+    /**
+     * Box radii whose successive application approximates a Gaussian (Kovesi's method).
+     */
+    static int[] boxRadiiForGauss(double sigma, int passes) {
+        double wIdeal = Math.sqrt(12 * sigma * sigma / passes + 1);
+        int wl = (int) Math.floor(wIdeal);
+        if (wl % 2 == 0) wl--;
+        int wu = wl + 2;
+        double mIdeal = (12 * sigma * sigma - passes * wl * wl - 4.0 * passes * wl - 3.0 * passes) / (-4.0 * wl - 4);
+        int m = (int) Math.round(mIdeal);
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) radii[i] = ((i < m ? wl : wu) - 1) / 2;
+        return radii;
+    }
+
+    // R, G and B ride together in one long, 21 bits each, so a running sum moves all three
+    // at once; 21 bits hold 255 * (2r + 1) for any radius below 4000.
+    private static final int FIELD = 21;
+    private static final long MASK = (1L << FIELD) - 1;
+    private static final int HALF = 1 << 15;
+
+    private static PixelKernel separableBoxes(int[] radii) {
+        int halo = 0;
+        for (int r : radii) halo += r;
+        if (halo == 0) return (src, dst, x0, y0, x1, y1) -> copy(src, dst, x0, y0, x1, y1);
+        int totalRadius = halo;
+        return PixelKernel.spatial(halo, 1, (src, dst, x0, y0, x1, y1) -> {
+            int w = src.getWidth(), h = src.getHeight();
+            // Halo this tile depends on; past the image edge the box passes repeat the border,
+            // and inside the image the halo is wide enough that clamping at its edge never reaches the tile
+            int by0 = Math.max(0, y0 - totalRadius), by1 = Math.min(h, y1 + totalRadius);
+            int bx0 = Math.max(0, x0 - totalRadius), bx1 = Math.min(w, x1 + totalRadius);
+            int rows = by1 - by0, cols = x1 - x0, span = bx1 - bx0;
+            int[] in = src.pixels();
+
+            // Fully opaque bands (the common case) skip the alpha plane entirely
+            boolean opaque = true;
+            for (int y = by0; y < by1 && opaque; y++)
+                for (int i = y * w + bx0, end = y * w + bx1; i < end; i++)
+                    if ((in[i] >>> 24) != 0xFF) { opaque = false; break; }
+
+            long[] rgb = new long[rows * cols];
+            long[] alpha = opaque ? null : new long[rows * cols];
+            long[] line = new long[span], tmp = new long[span];
+
+            // Horizontal passes over the halo-extended rows, keeping only the tile's columns
+            for (int y = by0; y < by1; y++) {
+                int base = y * w + bx0, o = (y - by0) * cols;
+                for (int x = 0; x < span; x++) line[x] = expand(in[base + x]);
+                for (int r : radii) boxLine(line, tmp, span, r);
+                System.arraycopy(line, x0 - bx0, rgb, o, cols);
+                if (alpha != null) {
+                    for (int x = 0; x < span; x++) line[x] = in[base + x] >>> 24;
+                    for (int r : radii) boxLine(line, tmp, span, r);
+                    System.arraycopy(line, x0 - bx0, alpha, o, cols);
+                }
+            }
+
+            // Vertical passes over the band
+            long[] sums = new long[cols];
+            long[] scratch = new long[rows * cols];
+            for (int r : radii) {
+                boxColumns(rgb, scratch, sums, cols, rows, r);
+                long[] t = rgb; rgb = scratch; scratch = t;
+            }
+            if (alpha != null)
+                for (int r : radii) {
+                    boxColumns(alpha, scratch, sums, cols, rows, r);
+                    long[] t = alpha; alpha = scratch; scratch = t;
+                }
+
+            int[] out = dst.pixels();
+            for (int y = y0; y < y1; y++) {
+                int row = (y - by0) * cols, o = y * w + x0;
+                for (int x = 0; x < cols; x++) {
+                    long v = rgb[row + x];
+                    int a = alpha == null ? 0xFF : (int) alpha[row + x];
+                    out[o + x] = (a << 24) | ((int) (v >>> (2 * FIELD)) << 16) | ((int) (v >>> FIELD & MASK) << 8) | (int) (v & MASK);
+                }
+            }
+        });
+    }
+
+    private static long expand(int p) {
+        return ((long) ((p >> 16) & 0xFF) << (2 * FIELD)) | ((long) ((p >> 8) & 0xFF) << FIELD) | (p & 0xFF);
+    }
+
+    /** Divides each packed field of a window sum by the window size (inv = 2^16 / size). */
+    private static long average(long sum, long inv) {
+        long r = ((sum >>> (2 * FIELD)) * inv + HALF) >>> 16;
+        long g = (((sum >>> FIELD) & MASK) * inv + HALF) >>> 16;
+        long b = ((sum & MASK) * inv + HALF) >>> 16;
+        return (r << (2 * FIELD)) | (g << FIELD) | b;
+    }
+
+    /**
+     * One running-sum box pass over a line, in place ({@code tmp} is scratch of the same length).
+     * The interior runs without bounds clamping; only the first and last r samples clamp.
+     */
+    private static void boxLine(long[] v, long[] tmp, int n, int r) {
+        if (r == 0) return;
+        long inv = (1 << 16) / (2 * r + 1);
+        int last = n - 1;
+        long sum = (r + 1) * v[0];
+        for (int i = 1; i <= r; i++) sum += v[Math.min(i, last)];
+        int i = 0;
+        int lead = Math.min(r + 1, n);
+        for (; i < lead; i++) {
+            tmp[i] = average(sum, inv);
+            sum += v[Math.min(i + r + 1, last)] - v[0];
+        }
+        for (int end = n - r - 1; i < end; i++) {
+            tmp[i] = average(sum, inv);
+            sum += v[i + r + 1] - v[i - r];
+        }
+        for (; i < n; i++) {
+            tmp[i] = average(sum, inv);
+            sum += v[last] - v[Math.max(i - r, 0)];
+        }
+        System.arraycopy(tmp, 0, v, 0, n);
+    }
+
+    /**
+     * One running-sum box pass down the columns of a band, walking rows so memory access
+     * stays sequential. Reads {@code src}, writes {@code dst}.
+     */
+    private static void boxColumns(long[] src, long[] dst, long[] sums, int cols, int rows, int r) {
+        if (r == 0) {
+            System.arraycopy(src, 0, dst, 0, rows * cols);
+            return;
+        }
+        long inv = (1 << 16) / (2 * r + 1);
+        int last = rows - 1;
+        for (int x = 0; x < cols; x++) sums[x] = (r + 1) * src[x];
+        for (int i = 1; i <= r; i++) {
+            int row = Math.min(i, last) * cols;
+            for (int x = 0; x < cols; x++) sums[x] += src[row + x];
+        }
+        for (int y = 0; y < rows; y++) {
+            int o = y * cols;
+            int add = Math.min(y + r + 1, last) * cols, sub = Math.max(y - r, 0) * cols;
+            for (int x = 0; x < cols; x++) {
+                long s = sums[x];
+                dst[o + x] = average(s, inv);
+                sums[x] = s + src[add + x] - src[sub + x];
+            }
+        }
+    }
+
+    private static void copy(ArgbImage src, ArgbImage dst, int x0, int y0, int x1, int y1) {
+        int w = src.getWidth();
+        for (int y = y0; y < y1; y++)
+            System.arraycopy(src.pixels(), y * w + x0, dst.pixels(), y * w + x0, x1 - x0);
+    }
+}
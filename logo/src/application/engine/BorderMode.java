@@ -0,0 +1,37 @@
+package application.engine;
+
+/**
+ * How neighbourhood effects sample pixels that fall outside the image.
+ */
+public enum BorderMode {
+
+    /** Repeat the nearest edge pixel: aaa|abcd|ddd. */
+    CLAMP,
+
+    /**
+     * Tile the image: bcd|abcd|abc. Reads the opposite edge, so it needs the whole image in one
+     * buffer; Convolution rejects it on a window (e.g. the tile runs of an EditStack).
+     */
+    WRAP,
+
+    /** Reflect about the edge pixel without repeating it: dcb|abcd|cba. */
+    MIRROR;
+
+    /**
+     * Maps a possibly out-of-range coordinate into 0..n-1.
+     */
+    public int map(int v, int n) {
+        if (v >= 0 && v < n) return v;
+        switch (this) {
+            case WRAP:
+                return Math.floorMod(v, n);
+            case MIRROR:
+                if (n == 1) return 0;
+                int period = 2 * (n - 1);
+                v = Math.floorMod(v, period);
+                return v < n ? v : period - v;
+            default:
+                return v < 0 ? 0 : n - 1;
+        }
+    }
+}
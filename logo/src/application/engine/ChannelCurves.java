@@ -0,0 +1,125 @@
+package application.engine;
+
+import java.util.function.IntUnaryOperator;
+
+import static application.engine.Argb.*;
+
+/**
+ * Independent per-channel tone curves, compiled into 256-entry lookup tables.
+ * Building a curve evaluates its function once per channel value; applying it
+ * is then three table lookups per pixel. Alpha is left untouched.
+ */
+public final class ChannelCurves implements PointOp {
+
+    private final int[] r, g, b;
+    /** Lazily detected 8-bit fixed-point gains; NO_GAINS once checked and not a plain scale. */
+    private volatile int[] gains;
+    private static final int[] NO_GAINS = new int[0];
+
+    private ChannelCurves(int[] r, int[] g, int[] b) {
+        this.r = r;
+        this.g = g;
+        this.b = b;
+    }
+
+    /**
+     * Compiles three curve functions (0..255 in, clamped to 0..255 out) into tables.
+     */
+    public static ChannelCurves of(IntUnaryOperator red, IntUnaryOperator green, IntUnaryOperator blue) {
+        int[] rt = compile(red);
+        int[] gt = red == green ? rt : compile(green);
+        int[] bt = red == blue ? rt : (green == blue ? gt : compile(blue));
+        return new ChannelCurves(rt, gt, bt);
+    }
+
+    /** Same curve on all three channels. */
+    public static ChannelCurves uniform(IntUnaryOperator curve) {
+        return of(curve, curve, curve);
+    }
+
+    private static int[] compile(IntUnaryOperator curve) {
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) table[v] = clamp(curve.applyAsInt(v));
+        return table;
+    }
+
+    @Override
+    public int apply(int p) {
+        return (p & 0xFF000000) | (r[(p >> 16) & 0xFF] << 16) | (g[(p >> 8) & 0xFF] << 8) | b[p & 0xFF];
+    }
+
+    /**
+     * Tight lookup loop over a run of pixels, used when the curves are the only pipeline stage.
+     */
+    void applyRange(int[] in, int[] out, int from, int to) {
+        SimdBackend simd = Simd.backend();
+        if (simd != null) {
+            int[] q = linearGains();
+            if (q != null) simd.mulClamp(in, out, from, to, q[0], q[1], q[2]);
+            else simd.lut(in, out, from, to, r, g, b);
+            return;
+        }
+        int[] rt = r, gt = g, bt = b;
+        for (int i = from; i < to; i++) {
+            int p = in[i];
+            out[i] = (p & 0xFF000000) | (rt[(p >> 16) & 0xFF] << 16) | (gt[(p >> 8) & 0xFF] << 8) | bt[p & 0xFF];
+        }
+    }
+
+    /**
+     * The per-channel gains q for which each table equals min(255, (v * q + 128) >> 8),
+     * or null if any channel is not such a scale. Lets the vector backend multiply
+     * instead of gathering (tints and warm/cool tones are plain scales).
+     */
+    int[] linearGains() {
+        int[] q = gains;
+        if (q == null) {
+            int qr = gainOf(r), qg = gainOf(g), qb = gainOf(b);
+            gains = q = qr < 0 || qg < 0 || qb < 0 ? NO_GAINS : new int[]{qr, qg, qb};
+        }
+        return q == NO_GAINS ? null : q;
+    }
+
+    private static int gainOf(int[] table) {
+        // Estimate from the largest unclamped entry, then confirm against the whole table
+        int v = 255;
+        while (v > 1 && table[v] == 255) v--;
+        int guess = (int) Math.round(table[v] * 256.0 / v);
+        for (int q = guess - 1; q <= guess + 1; q++) {
+            boolean match = q >= 0;
+            for (int i = 0; i < 256 && match; i++) match = table[i] == Math.min(255, (i * q + 128) >> 8);
+            if (match) return q;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the curves equivalent to applying these, then {@code next} (exact table composition).
+     */
+    public ChannelCurves then(ChannelCurves next) {
+        return new ChannelCurves(compose(r, next.r), compose(g, next.g), compose(b, next.b));
+    }
+
+    /**
+     * Curves blended with the identity by t / 256 (same rounding as {@link Argb#lerp}).
+     */
+    ChannelCurves mix(int t) {
+        return new ChannelCurves(mix(r, t), mix(g, t), mix(b, t));
+    }
+
+    private static int[] mix(int[] table, int t) {
+        int[] out = new int[256];
+        for (int v = 0; v < 256; v++) out[v] = Argb.mix(v, table[v], t);
+        return out;
+    }
+
+    private static int[] compose(int[] first, int[] second) {
+        int[] out = new int[256];
+        for (int v = 0; v < 256; v++) out[v] = second[first[v]];
+        return out;
+    }
+
+    public int red(int v)   { return r[v]; }
+    public int green(int v) { return g[v]; }
+    public int blue(int v)  { return b[v]; }
+}
@@ -0,0 +1,71 @@
+package application.engine;
+
+import static application.engine.Argb.*;
+
+/**
+ * Affine 3x4 color matrix over 0..255 channel values:
+ * r' = m[0]*r + m[1]*g + m[2]*b + m[3], and likewise for g' and b'.
+ * Results are rounded and clamped; alpha is left untouched.
+ */
+public final class ColorMatrix implements PointOp {
+
+    private final float[] m;
+
+    public ColorMatrix(float... m) {
+        if (m.length != 12) throw new IllegalArgumentException("ColorMatrix needs 12 coefficients");
+        this.m = m.clone();
+    }
+
+    /** Diagonal matrix scaling each channel and adding an offset. */
+    public static ColorMatrix scale(double r, double g, double b, double offset) {
+        return new ColorMatrix(
+                (float) r, 0, 0, (float) offset,
+                0, (float) g, 0, (float) offset,
+                0, 0, (float) b, (float) offset);
+    }
+
+    @Override
+    public int apply(int p) {
+        int r = red(p), g = green(p), b = blue(p);
+        float[] k = m;
+        // +0.5 and truncate rounds correctly for anything that survives the clamp
+        int nr = (int) (k[0] * r + k[1] * g + k[2] * b + k[3] + 0.5f);
+        int ng = (int) (k[4] * r + k[5] * g + k[6] * b + k[7] + 0.5f);
+        int nb = (int) (k[8] * r + k[9] * g + k[10] * b + k[11] + 0.5f);
+        return pack(alpha(p), clamp(nr), clamp(ng), clamp(nb));
+    }
+
+    /** Raw coefficients, row-major, for the vector backend (not a copy). */
+    float[] coefficients() {
+        return m;
+    }
+
+    /**
+     * True if every output stays within 0..255 for any input, so clamping is a no-op
+     * and this matrix can be multiplied into the next one without changing the result.
+     */
+    public boolean isRangePreserving() {
+        for (int row = 0; row < 3; row++) {
+            float lo = m[row * 4 + 3], hi = lo;
+            for (int col = 0; col < 3; col++) {
+                float c = m[row * 4 + col] * 255;
+                if (c < 0) lo += c; else hi += c;
+            }
+            if (lo < -0.5f || hi > 255.5f) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the matrix equivalent to applying this one, then {@code next}.
+     */
+    public ColorMatrix then(ColorMatrix next) {
+        float[] a = m, n = next.m, out = new float[12];
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++)
+                out[row * 4 + col] = n[row * 4] * a[col] + n[row * 4 + 1] * a[4 + col] + n[row * 4 + 2] * a[8 + col];
+            out[row * 4 + 3] = n[row * 4] * a[3] + n[row * 4 + 1] * a[7] + n[row * 4 + 2] * a[11] + n[row * 4 + 3];
+        }
+        return new ColorMatrix(out);
+    }
+}
@@ -0,0 +1,98 @@
+package application.engine;
+
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import static application.engine.Argb.*;
+
+/**
+ * The editor's per-pixel color effects as composable {@link PointOp}s.
+ * Linear effects are color matrices, per-channel effects are lookup-table curves
+ * (cached per parameter set in {@link LutCache}), so chains of them fold together
+ * inside a {@link PointPipeline}.
+ */
+public final class ColorOps {
+
+    private static final float THIRD = 1f / 3f;
+
+    private ColorOps() { }
+
+    public static ColorMatrix grayscale() {
+        return new ColorMatrix(
+                THIRD, THIRD, THIRD, 0,
+                THIRD, THIRD, THIRD, 0,
+                THIRD, THIRD, THIRD, 0);
+    }
+
+    public static ColorMatrix sepia() {
+        return new ColorMatrix(
+                0.393f, 0.769f, 0.189f, 0,
+                0.349f, 0.686f, 0.168f, 0,
+                0.272f, 0.534f, 0.131f, 0);
+    }
+
+    /** Halfway blend towards gray: c' = (c + (r + g + b) / 3) / 2. */
+    public static ColorMatrix desaturate() {
+        float own = 0.5f + THIRD / 2, other = THIRD / 2;
+        return new ColorMatrix(
+                own, other, other, 0,
+                other, own, other, 0,
+                other, other, own, 0);
+    }
+
+    /** 20% blend towards white. */
+    public static ChannelCurves fade() {
+        return LutCache.get(List.of("fade"), () -> ChannelCurves.uniform(v -> v + (255 - v) / 5));
+    }
+
+    public static ChannelCurves invert() {
+        return LutCache.get(List.of("invert"), () -> ChannelCurves.uniform(v -> 255 - v));
+    }
+
+    /** Multiplies each channel by a factor and clamps. */
+    public static ChannelCurves tint(double rFac, double gFac, double bFac) {
+        return LutCache.get(List.of("tint", rFac, gFac, bFac), () -> ChannelCurves.of(
+                v -> (int) Math.round(v * rFac),
+                v -> (int) Math.round(v * gFac),
+                v -> (int) Math.round(v * bFac)));
+    }
+
+    /**
+     * Per-channel levels: [low, high] of each channel is stretched linearly to 0..255,
+     * values outside it clip.
+     */
+    public static ChannelCurves levels(int rLow, int rHigh, int gLow, int gHigh, int bLow, int bHigh) {
+        return LutCache.get(List.of("levels", rLow, rHigh, gLow, gHigh, bLow, bHigh), () -> ChannelCurves.of(
+                stretch(rLow, rHigh), stretch(gLow, gHigh), stretch(bLow, bHigh)));
+    }
+
+    private static IntUnaryOperator stretch(int low, int high) {
+        int range = Math.max(1, high - low);
+        return v -> ((v - low) * 255 + range / 2) / range;
+    }
+
+    public static ChannelCurves posterize(int levels) {
+        return LutCache.get(List.of("posterize", levels),
+                () -> ChannelCurves.uniform(v -> (v * levels / 255 * 255 + levels / 2) / levels));
+    }
+
+    /** Brightness/contrast: c' = ((c - 0.5) * contrast + 0.5) * brightness on 0..1 values. */
+    public static ChannelCurves adjust(double brightness, double contrast) {
+        return LutCache.get(List.of("adjust", brightness, contrast),
+                () -> ChannelCurves.uniform(v -> (int) Math.round(((v / 255.0 - 0.5) * contrast + 0.5) * brightness * 255)));
+    }
+
+    /** Scales HSB brightness, keeping hue and saturation (same as Color.deriveColor(0, 1, f, 1)). */
+    public static PointOp hsbBrightness(double factor) {
+        return p -> {
+            int r = red(p), g = green(p), b = blue(p);
+            int max = Math.max(r, Math.max(g, b));
+            if (max == 0) return p;
+            double scale = Math.min(factor, 255.0 / max);
+            return pack(alpha(p),
+                    clamp((int) Math.round(r * scale)),
+                    clamp((int) Math.round(g * scale)),
+                    clamp((int) Math.round(b * scale)));
+        };
+    }
+}
@@ -0,0 +1,134 @@
+package application.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-point convolution over packed ARGB.
+ * Weights are quantised to integers once; the interior of each tile runs a
+ * branch-free loop over precomputed pixel offsets, and only the border strips
+ * go through {@link BorderMode} coordinate mapping. Borders are mapped in full-image
+ * coordinates, so a window ({@link ArgbImage#originX()}) renders like the same region of the
+ * whole image.
+ * Alpha is copied from the centre pixel. Used for Sharpen, Edge Detect and Emboss, and for Blur
+ * on a proxy (see {@link EffectKernels}); Blur at full resolution is {@link BlurKernels#box}.
+ */
+public final class Convolution {
+
+    /** Fraction bits for quantised weights. */
+    private static final int SHIFT = 12;
+
+    private Convolution() { }
+
+    public static PixelKernel of(double[][] kernel) {
+        return of(kernel, BorderMode.CLAMP);
+    }
+
+    public static PixelKernel of(double[][] kernel, BorderMode border) {
+        int kh = kernel.length, kw = kernel[0].length;
+        int halo = Math.max(kw / 2, kh / 2);
+        Dense dense = new Dense(kernel, border);
+        return PixelKernel.spatial(halo, 1, dense::apply);
+    }
+
+    /** Maps a window coordinate through the border mode of the full image, back into the window. */
+    private static int map(BorderMode border, int v, int origin, int full) {
+        return border.map(origin + v, full) - origin;
+    }
+
+    /** WRAP reads the opposite edge, which a window does not hold. */
+    private static void checkBorder(BorderMode border, ArgbImage src) {
+        if (border == BorderMode.WRAP && (src.getWidth() != src.fullWidth() || src.getHeight() != src.fullHeight()))
+            throw new IllegalArgumentException("WRAP borders need the whole image, not a "
+                    + src.getWidth() + "x" + src.getHeight() + " window of it");
+    }
+
+    private static int round(long acc, int shift) {
+        int v = (int) ((acc + (1L << (shift - 1))) >> shift);
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /** General 2-D kernel; zero taps are dropped up front. */
+    private static final class Dense {
+        private final int kw, kh, hw, hh;
+        private final int[] tapX, tapY, tapW;
+        /** Full row-major weights of a 3x3 kernel for the vector backend, else null. */
+        private final int[] grid;
+        private final BorderMode border;
+
+        Dense(double[][] kernel, BorderMode border) {
+            this.kh = kernel.length;
+            this.kw = kernel[0].length;
+            this.hw = kw / 2;
+            this.hh = kh / 2;
+            this.border = border;
+            this.grid = kw == 3 && kh == 3 ? new int[9] : null;
+            List<int[]> taps = new ArrayList<>();
+            for (int y = 0; y < kh; y++)
+                for (int x = 0; x < kw; x++) {
+                    int q = (int) Math.round(kernel[y][x] * (1 << SHIFT));
+                    if (grid != null) grid[y * 3 + x] = q;
+                    if (q != 0) taps.add(new int[]{x - hw, y - hh, q});
+                }
+            long reach = 0;
+            for (int[] t : taps) reach += Math.abs((long) t[2]) * 255;
+            if (reach > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Kernel weights too large for fixed-point accumulation");
+            tapX = new int[taps.size()];
+            tapY = new int[taps.size()];
+            tapW = new int[taps.size()];
+            for (int i = 0; i < taps.size(); i++) {
+                tapX[i] = taps.get(i)[0];
+                tapY[i] = taps.get(i)[1];
+                tapW[i] = taps.get(i)[2];
+            }
+        }
+
+        void apply(ArgbImage src, ArgbImage dst, int x0, int y0, int x1, int y1) {
+            checkBorder(border, src);
+            int[] in = src.pixels(), out = dst.pixels();
+            int w = src.getWidth(), h = src.getHeight(), n = tapW.length;
+            int[] offs = new int[n];
+            for (int t = 0; t < n; t++) offs[t] = tapY[t] * w + tapX[t];
+            int ix0 = Math.max(x0, Math.min(hw, x1)), ix1 = Math.max(ix0, Math.min(x1, w - (kw - 1 - hw)));
+            SimdBackend simd = grid != null ? Simd.backend() : null;
+
+            for (int y = y0; y < y1; y++) {
+                boolean interiorRow = y >= hh && y < h - (kh - 1 - hh);
+                if (!interiorRow) {
+                    for (int x = x0; x < x1; x++) out[y * w + x] = edgePixel(src, in, x, y);
+                    continue;
+                }
+                for (int x = x0; x < ix0; x++) out[y * w + x] = edgePixel(src, in, x, y);
+                if (simd != null) {
+                    simd.convolve3x3(in, out, y * w + ix0, y * w + ix1, w, grid, SHIFT);
+                    for (int x = ix1; x < x1; x++) out[y * w + x] = edgePixel(src, in, x, y);
+                    continue;
+                }
+                for (int i = y * w + ix0, end = y * w + ix1; i < end; i++) {
+                    int r = 0, g = 0, b = 0;
+                    for (int t = 0; t < n; t++) {
+                        int p = in[i + offs[t]], k = tapW[t];
+                        r += k * ((p >> 16) & 0xFF);
+                        g += k * ((p >> 8) & 0xFF);
+                        b += k * (p & 0xFF);
+                    }
+                    out[i] = (in[i] & 0xFF000000) | (round(r, SHIFT) << 16) | (round(g, SHIFT) << 8) | round(b, SHIFT);
+                }
+                for (int x = ix1; x < x1; x++) out[y * w + x] = edgePixel(src, in, x, y);
+            }
+        }
+
+        private int edgePixel(ArgbImage src, int[] in, int x, int y) {
+            int w = src.getWidth(), ox = src.originX(), oy = src.originY(), fw = src.fullWidth(), fh = src.fullHeight();
+            int r = 0, g = 0, b = 0;
+            for (int t = 0; t < tapW.length; t++) {
+                int p = in[map(border, y + tapY[t], oy, fh) * w + map(border, x + tapX[t], ox, fw)], k = tapW[t];
+                r += k * ((p >> 16) & 0xFF);
+                g += k * ((p >> 8) & 0xFF);
+                b += k * (p & 0xFF);
+            }
+            return (in[y * w + x] & 0xFF000000) | (round(r, SHIFT) << 16) | (round(g, SHIFT) << 8) | round(b, SHIFT);
+        }
+    }
+}
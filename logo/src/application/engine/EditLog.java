@@ -0,0 +1,265 @@
+package application.engine;
+
+import application.model.Effect;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Undo/redo history of a destructively edited image that records the edits, not the pixels.
+ * Every step is an {@link Effect} (name, intensity, parameters), which renders the same result
+ * every time. A full image is kept as a keyframe every {@code interval} steps; any other step is
+ * rebuilt by replaying the operations after the nearest keyframe below it, so a deep history costs
+ * a handful of images plus a few bytes per step. The last state built is remembered as well, so
+ * redo right after undo, or the next edit, starts from it.
+ * <p>
+ * Moving through the history ({@link #undo}, {@link #redo}) is instant; the pixels are built by a
+ * {@link Plan}, taken on the FX thread and run in the background. The operation list can be saved
+ * and loaded ({@link #save}, {@link #load}) and replayed onto another image ({@link #apply}), e.g.
+ * for crash recovery or to apply one set of edits to a batch. Used by ImageController.
+ * Not thread-safe: call from the FX thread.
+ */
+public final class EditLog {
+
+    /** Steps between keyframes when none is given. */
+    public static final int DEFAULT_INTERVAL = 10;
+
+    private final int interval;
+    private final List<Effect> ops = new ArrayList<>();
+    // Step -> image after that many operations; step 0 is the original
+    private final TreeMap<Integer, TileHistory.State> keyframes = new TreeMap<>();
+    private int position;
+    // Bumped whenever the operations change, so plans taken before cannot fill the cache
+    private long version;
+    private int cachedStep = -1;
+    private TileHistory.State cached;
+
+    public EditLog() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /** @param interval steps between full-image keyframes */
+    public EditLog(int interval) {
+        if (interval < 1) throw new IllegalArgumentException("Keyframe interval must be at least 1: " + interval);
+        this.interval = interval;
+    }
+
+    /** Starts over from {@code original} with no operations. */
+    public void reset(TileHistory.State original) {
+        ops.clear();
+        keyframes.clear();
+        keyframes.put(0, original);
+        position = 0;
+        version++;
+        remember(0, original);
+    }
+
+    /** Appends an operation after the current step, dropping any redo steps, with the image it produced. */
+    public void record(Effect op, TileHistory.State result) {
+        truncate(position);
+        ops.add(copy(op));
+        position++;
+        stepChanged(result);
+    }
+
+    /** Replaces the operation of the current step, e.g. while a slider is dragged. */
+    public void amend(Effect op, TileHistory.State result) {
+        if (position == 0) throw new IllegalStateException("No operation to amend");
+        truncate(position);
+        ops.set(position - 1, copy(op));
+        keyframes.remove(position);
+        stepChanged(result);
+    }
+
+    /** Drops the current step's operation without making it redoable; false if there is none. */
+    public boolean discard() {
+        if (position == 0) return false;
+        truncate(--position);
+        version++;
+        return true;
+    }
+
+    /** Steps back; false if there is nothing to undo. Take a {@link #plan()} for the pixels. */
+    public boolean undo() {
+        if (position == 0) return false;
+        position--;
+        return true;
+    }
+
+    /** Steps forward; false if there is nothing to redo. Take a {@link #plan()} for the pixels. */
+    public boolean redo() {
+        if (position == ops.size()) return false;
+        position++;
+        return true;
+    }
+
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    public boolean canRedo() {
+        return position < ops.size();
+    }
+
+    /** Number of operations applied at the current step. */
+    public int position() {
+        return position;
+    }
+
+    /** Copies of the operations applied at the current step, oldest first. */
+    public List<Effect> operations() {
+        List<Effect> applied = new ArrayList<>();
+        for (Effect op : ops.subList(0, position)) applied.add(copy(op));
+        return applied;
+    }
+
+    /** Number of full images held as keyframes. */
+    public int keyframeCount() {
+        return keyframes.size();
+    }
+
+    /**
+     * How to build the current step: the nearest keyframe (or the last state built, if that is
+     * nearer) and the operations after it. Run it off the FX thread, then hand the result back
+     * with {@link #remember(Plan, TileHistory.State)}.
+     */
+    public Plan plan() {
+        Map.Entry<Integer, TileHistory.State> key = keyframes.floorEntry(position);
+        int from = key.getKey();
+        TileHistory.State start = key.getValue();
+        if (cached != null && cachedStep >= from && cachedStep <= position) {
+            from = cachedStep;
+            start = cached;
+        }
+        return new Plan(start, new ArrayList<>(ops.subList(from, position)), position, version);
+    }
+
+    /** Keeps a plan's result as the last state built, unless the operations changed since. */
+    public void remember(Plan plan, TileHistory.State state) {
+        if (plan.version == version) remember(plan.step, state);
+    }
+
+    private void remember(int step, TileHistory.State state) {
+        cachedStep = step;
+        cached = state;
+    }
+
+    /** Drops the operations (and keyframes) after {@code step}. */
+    private void truncate(int step) {
+        ops.subList(step, ops.size()).clear();
+        keyframes.tailMap(step, false).clear();
+        if (cachedStep > step) remember(-1, null);
+    }
+
+    private void stepChanged(TileHistory.State result) {
+        version++;
+        if (position % interval == 0) keyframes.put(position, result);
+        remember(position, result);
+    }
+
+    /**
+     * Writes the operations applied at the current step to a text file, one per line:
+     * name, intensity and parameters separated by tabs.
+     */
+    public void save(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Effect op : ops.subList(0, position)) {
+                out.write(op.getName());
+                out.write('\t');
+                out.write(Double.toString(op.getIntensity()));
+                for (double p : op.getParameters()) {
+                    out.write('\t');
+                    out.write(Double.toString(p));
+                }
+                out.newLine();
+            }
+        }
+    }
+
+    /** Reads operations written by {@link #save}. */
+    public static List<Effect> load(Path file) throws IOException {
+        List<Effect> loaded = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                String[] f = line.split("\t");
+                try {
+                    Effect op = new Effect(f[0], EffectKernels.categoryOf(f[0]), Double.parseDouble(f[1]));
+                    double[] params = new double[f.length - 2];
+                    for (int i = 0; i < params.length; i++) params[i] = Double.parseDouble(f[i + 2]);
+                    op.setParameters(params);
+                    loaded.add(op);
+                } catch (RuntimeException e) {
+                    throw new IOException("Bad edit log line: " + line, e);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Replays operations onto an image, e.g. a logged session onto another photo.
+     * @throws IllegalArgumentException if an operation names no known effect
+     * @throws CancellationException if the monitor cancelled the replay
+     */
+    public static ArgbImage apply(List<Effect> operations, ArgbImage image, RenderMonitor monitor) {
+        for (Effect op : operations) image = PixelEngine.run(image, kernelOf(op), monitor);
+        return image;
+    }
+
+    private static PixelKernel kernelOf(Effect op) {
+        PixelKernel kernel = EffectKernels.forEffect(op.getName(), op.getIntensity(), op.getParameters());
+        if (kernel == null) throw new IllegalArgumentException("Unknown effect in edit log: " + op.getName());
+        return kernel;
+    }
+
+    private static Effect copy(Effect op) {
+        Effect c = new Effect(op.getName(), op.getCategory(), op.getIntensity());
+        c.setParameters(op.getParameters());
+        return c;
+    }
+
+    /** A start image and the operations that turn it into one step of the log. Immutable. */
+    public static final class Plan {
+        private final TileHistory.State start;
+        private final List<Effect> ops;
+        private final int step;
+        private final long version;
+        private volatile TileHistory.State result;
+
+        private Plan(TileHistory.State start, List<Effect> ops, int step, long version) {
+            this.start = start;
+            this.ops = ops;
+            this.step = step;
+            this.version = version;
+        }
+
+        /** Operations to replay (0 when the step is a keyframe or was just built). */
+        public int replaySteps() {
+            return ops.size();
+        }
+
+        /**
+         * Builds the step; the result shares unchanged tiles with the start image, so a display
+         * showing it can be updated tile by tile. Later calls return the same state.
+         * @throws CancellationException if the monitor cancelled the replay
+         */
+        public TileHistory.State run(RenderMonitor monitor) {
+            TileHistory.State done = result;
+            if (done != null) return done;
+            done = ops.isEmpty() ? start : start.derive(apply(ops, start.toArgbImage(), monitor));
+            result = done;
+            return done;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package application.engine;
+
+import application.model.Effect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Non-destructive list of {@link Effect}s over a source image.
+ * The stack is rendered as a chain of segments: a run of consecutive point effects is fused into
+ * one pass, every other effect is a segment of its own, and each segment keeps its output.
+ * On the next render, segments whose effects (name, intensity, parameters, enabled) and upstream output are
+ * unchanged are reused, so editing one node only recomputes from that node's segment downwards.
+ * Disabled effects are skipped. Used by PhotoEditorController.
+ * <p>
+ * Outputs are filled lazily in {@value #TILE} px tiles: a region render computes only the tiles
+ * it needs (plus the halos upstream spatial effects read), nearest to the region's centre first,
+ * so the visible part of a very large image is ready long before the rest is touched.
+ * <p>
+ * The source and every segment output are {@link TiledImageStore}s, off the heap and spilled to
+ * scratch files when they outgrow memory. Kernels run on heap windows: each run of missing tiles
+ * copies in the input it reads (tiles plus halo), renders, and copies the tiles back out, so heap
+ * use depends on the window size and the number of workers, not on the image size or stack depth.
+ * {@link #close()} frees all of it at once.
+ */
+public final class EditStack implements AutoCloseable {
+
+    /** Tile edge of the lazily filled segment outputs. */
+    static final int TILE = TiledImageStore.TILE;
+    /** Widest run of tiles rendered as one window. */
+    private static final int MAX_RUN = 16 * TILE;
+
+    private final TiledImageStore sourceStore;
+    private final int proxyWidth, proxyHeight;
+    // What the first segment reads: sourceStore itself, or a proxy of it owned by the stack,
+    // and its size relative to sourceStore (spatial effects are scaled by it)
+    private TiledImageStore source;
+    private double scale = 1;
+    private boolean closed;
+    private final List<Effect> effects = new ArrayList<>();
+
+    // Cache slot per effect index; only the last index of each segment holds an output
+    private final List<Segment> cache = new ArrayList<>();
+    private int lastRecomputed;
+    // Mipmaps of the final output, and the segment (or source) whose tiles they were built from
+    private ImagePyramid pyramid;
+    private Object pyramidOwner, lastOwner;
+
+    /** Stack over the full-resolution image. The store stays owned by the caller. */
+    public EditStack(TiledImageStore source) {
+        this(source, 0, 0);
+    }
+
+    /**
+     * Stack over a proxy of the image that fits maxWidth x maxHeight (built on first render),
+     * for fast whole-image previews. Spatial effects are scaled to the proxy
+     * (see {@link EffectKernels#forEffect(String, double, double[], double)}), so the preview looks
+     * like the full-resolution result scaled down.
+     */
+    public EditStack(TiledImageStore source, int maxWidth, int maxHeight) {
+        this.sourceStore = source;
+        this.proxyWidth = maxWidth;
+        this.proxyHeight = maxHeight;
+    }
+
+    /** The full-resolution source the stack was created over. */
+    public TiledImageStore getSource() {
+        return sourceStore;
+    }
+
+    /** Live list of effects; edit it on the FX thread and pass a {@link #snapshot} to {@link #render}. */
+    public List<Effect> effects() {
+        return effects;
+    }
+
+    public boolean isEmpty() {
+        return effects.stream().noneMatch(Effect::isEnabled);
+    }
+
+    /** Deep copy of the effects, e.g. for undo. */
+    public List<Effect> snapshot() {
+        return copyAll(effects);
+    }
+
+    /** Replaces the effects with copies of {@code state}; caches of an unchanged prefix are kept. */
+    public void restore(List<Effect> state) {
+        effects.clear();
+        effects.addAll(copyAll(state));
+    }
+
+    /** Deep copy of a list of effects. */
+    public static List<Effect> copyAll(List<Effect> state) {
+        List<Effect> copy = new ArrayList<>();
+        for (Effect e : state) {
+            Effect c = new Effect(e.getName(), e.getCategory(), e.getIntensity());
+            c.setEnabled(e.isEnabled());
+            c.setParameters(e.getParameters());
+            copy.add(c);
+        }
+        return copy;
+    }
+
+    /** Number of segments the last render had to compute tiles for (for diagnostics). */
+    public int lastRecomputed() {
+        return lastRecomputed;
+    }
+
+    /**
+     * Renders a whole snapshot of the stack into a heap buffer, e.g. for previews.
+     * @see #render(List, int, int, int, int, RenderMonitor)
+     */
+    public ArgbImage render(List<Effect> state, RenderMonitor monitor) {
+        return render(state, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, monitor);
+    }
+
+    /**
+     * Renders the region [x0, x1) x [y0, y1) of a snapshot, reusing every cached tile upstream of
+     * the first change, and returns a new window holding just that region (see {@link ArgbImage#window}).
+     * @param state effects to render, taken with {@link #snapshot()} so the FX thread can keep editing
+     * @throws CancellationException if the monitor cancelled the render
+     * @throws IllegalStateException if the stack has been closed
+     */
+    public synchronized ArgbImage render(List<Effect> state, int x0, int y0, int x1, int y1, RenderMonitor monitor) {
+        TiledImageStore out = renderStore(state, x0, y0, x1, y1, monitor);
+        return out.read(Math.max(0, x0), Math.max(0, y0), Math.min(out.getWidth(), x1), Math.min(out.getHeight(), y1));
+    }
+
+    /**
+     * Renders every tile of a snapshot, e.g. for export, without bringing the image onto the heap.
+     * The store belongs to the stack: read it before the next render, and do not close it.
+     * @throws CancellationException if the monitor cancelled the render
+     */
+    public synchronized TiledImageStore renderAll(List<Effect> state, RenderMonitor monitor) {
+        return renderStore(state, 0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, monitor);
+    }
+
+    private TiledImageStore renderStore(List<Effect> state, int x0, int y0, int x1, int y1, RenderMonitor monitor) {
+        if (closed) throw new IllegalStateException("Edit stack is closed");
+        if (source == null) {
+            source = proxyWidth > 0 ? TiledImageStore.of(ImageProxy.fit(sourceStore, proxyWidth, proxyHeight)) : sourceStore;
+            scale = (double) source.getWidth() / sourceStore.getWidth();
+        }
+        int w = source.getWidth(), h = source.getHeight();
+        x0 = Math.max(0, x0); y0 = Math.max(0, y0);
+        x1 = Math.min(w, x1); y1 = Math.min(h, y1);
+
+        int n = state.size();
+        while (cache.size() < n) cache.add(null);
+        while (cache.size() > n) drop(cache.size() - 1, true);
+
+        // Split the snapshot into segments: a spatial effect alone, or a run of point effects
+        List<PixelKernel> kernels = new ArrayList<>();
+        List<List<Object>> keys = new ArrayList<>();
+        List<Integer> lasts = new ArrayList<>();
+        int i = 0;
+        while (i < n) {
+            PixelKernel first = kernelOf(state.get(i));
+            if (first == null) {
+                drop(i++, false);
+                continue;
+            }
+            List<PointPipeline> run = new ArrayList<>();
+            List<Object> key = new ArrayList<>();
+            int last = i;
+            for (int j = i; j < n; j++) {
+                PixelKernel k = kernelOf(state.get(j));
+                if (k == null) continue;
+                if (!(k instanceof PointPipeline p)) {
+                    if (j == i) last = j;
+                    break;
+                }
+                if (!(first instanceof PointPipeline)) break;
+                run.add(p);
+                last = j;
+            }
+            for (int j = i; j <= last; j++)
+                if (kernelOf(state.get(j)) != null) Collections.addAll(key, j, state.get(j).getName(), state.get(j).getIntensity(),
+                        Arrays.toString(state.get(j).getParameters()));
+            for (int j = i; j < last; j++) drop(j, false);
+            kernels.add(run.isEmpty() ? first : fuse(run));
+            keys.add(key);
+            lasts.add(last);
+            i = last + 1;
+        }
+
+        // Region each segment must produce: whole tiles are rendered, so the next segment reads
+        // its tile-aligned region grown by its halo
+        int segments = kernels.size();
+        int[][] need = new int[segments][];
+        int[] region = {x0, y0, x1, y1};
+        for (int s = segments - 1; s >= 0; s--) {
+            need[s] = region;
+            int halo = kernels.get(s).halo();
+            region = new int[]{Math.max(0, region[0] / TILE * TILE - halo), Math.max(0, region[1] / TILE * TILE - halo),
+                    Math.min(w, ceilTile(region[2]) + halo), Math.min(h, ceilTile(region[3]) + halo)};
+        }
+
+        // Start the first changed segment and every one below it over (no tiles done, reusing
+        // each slot's store) before rendering anything: a render cancelled half way must not
+        // leave a segment that matches its key but holds tiles of the old upstream output
+        boolean dirty = false;
+        for (int s = 0; s < segments; s++) {
+            int last = lasts.get(s);
+            Segment seg = cache.get(last);
+            if (dirty || seg == null || !seg.key.equals(keys.get(s))) {
+                cache.set(last, new Segment(keys.get(s), seg != null ? seg.output : new TiledImageStore(w, h)));
+                dirty = true;
+            }
+        }
+
+        TiledImageStore input = source;
+        Object owner = source;
+        lastRecomputed = 0;
+        for (int s = 0; s < segments; s++) {
+            Segment seg = cache.get(lasts.get(s));
+            List<int[]> missing = seg.missingTiles(need[s]);
+            if (!missing.isEmpty()) {
+                renderRuns(input, seg.output, kernels.get(s), missing, monitor);
+                seg.markDone(missing);
+                lastRecomputed++;
+            }
+            input = seg.output;
+            owner = seg;
+        }
+        lastOwner = owner;
+        return input;
+    }
+
+    /** Renders runs of tiles from one store into another, each run through a heap window of run plus halo. */
+    private static void renderRuns(TiledImageStore in, TiledImageStore out, PixelKernel kernel, List<int[]> runs,
+                                   RenderMonitor monitor) {
+        int halo = kernel.halo(), w = in.getWidth(), h = in.getHeight();
+        PixelEngine.forEachRegion(runs, monitor, t -> {
+            ArgbImage src = in.read(Math.max(0, t[0] - halo), Math.max(0, t[1] - halo),
+                    Math.min(w, t[2] + halo), Math.min(h, t[3] + halo));
+            ArgbImage dst = ArgbImage.window(src.originX(), src.originY(), src.originX() + src.getWidth(),
+                    src.originY() + src.getHeight(), w, h);
+            int ox = src.originX(), oy = src.originY();
+            kernel.apply(src, dst, t[0] - ox, t[1] - oy, t[2] - ox, t[3] - oy);
+            out.copyFrom(dst, t[0], t[1], t[2], t[3]);
+        });
+    }
+
+    /**
+     * Renders a region like {@link #render(List, int, int, int, int, RenderMonitor)} and returns
+     * level k of the result's {@link ImagePyramid} (1/2^k of the size in each dimension) for the
+     * region scaled by 1/2^k, for display below 100% zoom.
+     * Levels are kept while the result is unchanged, so panning only builds the newly exposed tiles;
+     * any edit that changes the result drops them.
+     * @throws CancellationException if the monitor cancelled the render
+     */
+    public synchronized ArgbImage renderLevel(List<Effect> state, int level, int x0, int y0, int x1, int y1,
+                                              RenderMonitor monitor) {
+        if (level == 0) return render(state, x0, y0, x1, y1, monitor);
+        // Level tiles read whole (TILE << level) blocks of the result
+        int block = ImagePyramid.TILE << level;
+        TiledImageStore out = renderStore(state, Math.max(0, x0) / block * block, Math.max(0, y0) / block * block,
+                ceil(x1, block), ceil(y1, block), monitor);
+        if (pyramid == null) {
+            pyramid = new ImagePyramid(out);
+        } else if (pyramidOwner != lastOwner || pyramid.getBase() != out) {
+            pyramid.reset(out);
+        }
+        pyramidOwner = lastOwner;
+        int lx0 = Math.max(0, x0) >> level, ly0 = Math.max(0, y0) >> level;
+        int lx1 = ceil(Math.min(out.getWidth(), x1), 1 << level) >> level, ly1 = ceil(Math.min(out.getHeight(), y1), 1 << level) >> level;
+        return pyramid.level(level, lx0, ly0, lx1, ly1).read(lx0, ly0, lx1, ly1);
+    }
+
+    /**
+     * Frees the cached outputs, the mipmaps and the proxy (not the source store, which belongs
+     * to the caller). The stack cannot render afterwards; a render in progress finishes first,
+     * so close it on the thread that renders it (see {@link RenderQueue#runAfter}).
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (int i = 0; i < cache.size(); i++) drop(i, false);
+        if (source != null && source != sourceStore) source.close();
+        source = null;
+        if (pyramid != null) pyramid.close();
+        pyramid = null;
+        pyramidOwner = lastOwner = null;
+    }
+
+    /** Bytes held by the proxy, the cached segment outputs and the mipmaps (for diagnostics). */
+    public synchronized long storedBytes() {
+        long n = source != null && source != sourceStore ? source.byteSize() : 0;
+        for (Segment seg : cache)
+            if (seg != null) n += seg.output.byteSize();
+        return n + (pyramid != null ? pyramid.bytes() : 0);
+    }
+
+    /** Frees a cache slot's output and empties the slot, removing it if it is the last one and {@code remove} is set. */
+    private void drop(int index, boolean remove) {
+        Segment seg = cache.get(index);
+        if (seg != null) seg.output.close();
+        if (remove && index == cache.size() - 1) cache.remove(index);
+        else cache.set(index, null);
+    }
+
+    private static int ceil(int v, int step) {
+        return (int) Math.min(Integer.MAX_VALUE, ((long) v + step - 1) / step * step);
+    }
+
+    private static int ceilTile(int v) {
+        return (v + TILE - 1) / TILE * TILE;
+    }
+
+    private PixelKernel kernelOf(Effect e) {
+        return e.isEnabled() ? EffectKernels.forEffect(e.getName(), e.getIntensity(), e.getParameters(), scale) : null;
+    }
+
+    private static PixelKernel fuse(List<PointPipeline> run) {
+        PointPipeline fused = run.get(0);
+        for (int k = 1; k < run.size(); k++) fused = fused.then(run.get(k));
+        return fused;
+    }
+
+    /** One segment's output and which of its tiles are up to date. */
+    private static final class Segment {
+        final List<Object> key;
+        final TiledImageStore output;
+        final BitSet done = new BitSet();
+        final int cols;
+
+        Segment(List<Object> key, TiledImageStore output) {
+            this.key = key;
+            this.output = output;
+            this.cols = (output.getWidth() + TILE - 1) / TILE;
+        }
+
+        /**
+         * Tiles overlapping the region that are not rendered yet, merged into horizontal runs of
+         * up to {@link #MAX_RUN} px (so a full render still works on long strips), nearest to the
+         * region's centre first.
+         */
+        List<int[]> missingTiles(int[] r) {
+            List<int[]> runs = new ArrayList<>();
+            if (r[2] <= r[0] || r[3] <= r[1]) return runs;
+            int w = output.getWidth(), h = output.getHeight();
+            for (int ty = r[1] / TILE; ty <= (r[3] - 1) / TILE; ty++) {
+                int txEnd = (r[2] - 1) / TILE;
+                for (int tx = r[0] / TILE; tx <= txEnd; tx++) {
+                    if (done.get(ty * cols + tx)) continue;
+                    int start = tx;
+                    while (tx + 1 <= txEnd && tx + 1 - start < MAX_RUN / TILE && !done.get(ty * cols + tx + 1)) tx++;
+                    runs.add(new int[]{start * TILE, ty * TILE, Math.min(w, (tx + 1) * TILE), Math.min(h, (ty + 1) * TILE)});
+                }
+            }
+            long cx = (r[0] + r[2]) / 2, cy = (r[1] + r[3]) / 2;
+            runs.sort(Comparator.comparingLong(t -> {
+                long dx = (t[0] + t[2]) / 2 - cx, dy = (t[1] + t[3]) / 2 - cy;
+                return dx * dx + dy * dy;
+            }));
+            return runs;
+        }
+
+        void markDone(List<int[]> runs) {
+            for (int[] t : runs) {
+                int row = t[1] / TILE * cols;
+                done.set(row + t[0] / TILE, row + (t[2] + TILE - 1) / TILE);
+            }
+        }
+    }
+}
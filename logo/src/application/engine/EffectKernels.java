@@ -0,0 +1,401 @@
+package application.engine;
+
+import static application.engine.Argb.*;
+
+/**
+ * Integer implementations of the editor's built-in effects.
+ * Used by PhotoEditorController, ImageController, ImageProcessor and FilterUtils.
+ * All kernels keep the source alpha unless noted otherwise.
+ */
+public final class EffectKernels {
+
+    private EffectKernels() { }
+
+    // ---------- COLOR ----------
+    // Point effects are single-op pipelines so they can be fused with their neighbours.
+
+    public static PointPipeline grayscale()  { return PointPipeline.of(ColorOps.grayscale()); }
+    public static PointPipeline invert()     { return PointPipeline.of(ColorOps.invert()); }
+    public static PointPipeline sepia()      { return PointPipeline.of(ColorOps.sepia()); }
+    public static PointPipeline desaturate() { return PointPipeline.of(ColorOps.desaturate()); }
+    public static PointPipeline fade()       { return PointPipeline.of(ColorOps.fade()); }
+
+    /**
+     * Multiplies each channel by a factor and clamps.
+     */
+    public static PointPipeline tint(double rFac, double gFac, double bFac) {
+        return PointPipeline.of(ColorOps.tint(rFac, gFac, bFac));
+    }
+
+    public static PointPipeline posterize(int levels) {
+        return PointPipeline.of(ColorOps.posterize(levels));
+    }
+
+    /**
+     * Lifts bright regions with local tone mapping on a bilateral grid, keeping their texture
+     * (see {@link BilateralGrid#highlightBoost}).
+     */
+    public static PixelKernel highlightBoost() {
+        return highlightBoost(1);
+    }
+
+    /** {@link #highlightBoost()} for an image scaled by {@code scale} (see {@link #forEffect(String, double, double[], double)}). */
+    public static PixelKernel highlightBoost(double scale) {
+        return BilateralGrid.highlightBoost(px(16, scale), 24, 0.6, 1.15);
+    }
+
+    /**
+     * Edge-aware smoothing for skin and other soft surfaces: averages within about 12 px,
+     * but not across luma steps of more than about 20 levels.
+     */
+    public static PixelKernel skinSmoothing() {
+        return skinSmoothing(1);
+    }
+
+    /** {@link #skinSmoothing()} for an image scaled by {@code scale}. */
+    public static PixelKernel skinSmoothing(double scale) {
+        return BilateralGrid.smooth(px(12, scale), 20);
+    }
+
+    /**
+     * Brightness/contrast as used by ImageProcessor: c' = ((c - 0.5) * contrast + 0.5) * brightness.
+     */
+    public static PointPipeline adjust(double brightness, double contrast) {
+        return PointPipeline.of(ColorOps.adjust(brightness, contrast));
+    }
+
+    /**
+     * Scales HSB brightness by a factor, keeping hue and saturation (same as Color.deriveColor(0, 1, f, 1)).
+     */
+    public static PointPipeline hsbBrightness(double factor) {
+        return PointPipeline.of(ColorOps.hsbBrightness(factor));
+    }
+
+    // ---------- BY NAME ----------
+
+    /**
+     * Kernel for one of the editor's named effects at full strength, or null for an unknown name.
+     */
+    public static PixelKernel byName(String name) {
+        return switch (name) {
+            case "Grayscale" -> grayscale();
+            case "Invert" -> invert();
+            case "Sepia" -> sepia();
+            case "RGB Filter" -> tint(1.2, 0.8, 0.8);
+            case "Blur" -> BlurKernels.box(1);
+            case "Sharpen" -> sharpen(BorderMode.CLAMP);
+            case "Edge Detect" -> edgeDetect(BorderMode.CLAMP);
+            case "Posterize" -> posterize(4);
+            case "Emboss" -> emboss(BorderMode.CLAMP);
+            case "Vignette" -> vignette();
+            case "Gradient" -> gradient(270, 0.4, 1.5);
+            case "Warm Tone" -> tint(1.1, 1.0, 0.9);
+            case "Cool Tone" -> tint(0.9, 1.0, 1.1);
+            case "Noise" -> noise();
+            case "Gaussian Noise" -> gaussianNoise();
+            case "Film Grain" -> filmGrain();
+            case "Pixelate" -> pixelate(8);
+            case "Local Contrast" -> localContrast();
+            case "Median Denoise" -> medianDenoise(1);
+            case "Tint Red" -> tint(1.1, 0.9, 0.9);
+            case "Tint Blue" -> tint(0.9, 0.9, 1.1);
+            case "Desaturate" -> desaturate();
+            case "Highlight Boost" -> highlightBoost();
+            case "Skin Smoothing" -> skinSmoothing();
+            case "Fade" -> fade();
+            default -> null;
+        };
+    }
+
+    /**
+     * Kernel for an edit stack node. For "Brightness" and "Contrast" the intensity is the
+     * slider value itself; for every other effect it blends the result with its input.
+     */
+    public static PixelKernel forEffect(String name, double intensity) {
+        return forEffect(name, intensity, new double[0]);
+    }
+
+    /**
+     * Kernel for an edit stack node whose effect carries parameters measured when it was added
+     * ("Auto Levels" and "Auto White Balance", see {@link AutoAdjust}), set by a slider
+     * ("Gaussian Blur" radius, "Pixelate" block size) or picked with the effect
+     * (the {@link BorderMode} ordinal of the convolutions, see {@link #hasBorderMode}).
+     */
+    public static PixelKernel forEffect(String name, double intensity, double[] params) {
+        PixelKernel kernel = switch (name) {
+            case "Brightness" -> adjust(intensity, 1);
+            case "Contrast" -> adjust(1, intensity);
+            case "Auto Levels" -> params.length == 6 ? levels(params) : null;
+            case "Auto White Balance" -> params.length == 3 ? tint(params[0], params[1], params[2]) : null;
+            case "Gaussian Blur" -> params.length == 1 ? BlurKernels.gaussian(params[0]) : null;
+            case "Pixelate" -> params.length == 1 ? pixelate((int) params[0]) : byName(name);
+            case "Sharpen" -> params.length == 1 ? sharpen(borderMode(params[0])) : byName(name);
+            case "Edge Detect" -> params.length == 1 ? edgeDetect(borderMode(params[0])) : byName(name);
+            case "Emboss" -> params.length == 1 ? emboss(borderMode(params[0])) : byName(name);
+            default -> byName(name);
+        };
+        if (kernel == null || name.equals("Brightness") || name.equals("Contrast")) return kernel;
+        return kernel.withStrength(intensity);
+    }
+
+    /**
+     * Kernel for a node rendered on a copy of the image scaled down by {@code scale} (a proxy,
+     * 0 < scale < 1), so the result looks like the full-resolution one scaled down rather than a
+     * stronger version of it. Radii and block sizes shrink with the image; noise amplitudes fall
+     * by {@code scale}, as averaging 1 / scale^2 pixels of independent noise would; and the 3x3
+     * convolutions keep their weight sum while the rest of the kernel, a first derivative (Emboss)
+     * or a second one (Blur, Sharpen, Edge Detect), is scaled by scale or scale^2.
+     * Effects that do not depend on pixel size render as at full resolution.
+     */
+    public static PixelKernel forEffect(String name, double intensity, double[] params, double scale) {
+        if (scale >= 1) return forEffect(name, intensity, params);
+        BorderMode border = hasBorderMode(name) && params.length == 1 ? borderMode(params[0]) : BorderMode.CLAMP;
+        PixelKernel kernel = switch (name) {
+            case "Blur" -> scaledConvolution(BOX3, scale * scale, border);
+            case "Gaussian Blur" -> params.length == 1 ? BlurKernels.gaussian(params[0] * scale) : null;
+            case "Pixelate" -> pixelate(px(params.length == 1 ? (int) params[0] : 8, scale));
+            case "Sharpen" -> scaledConvolution(SHARPEN, scale * scale, border);
+            case "Edge Detect" -> scaledConvolution(EDGE_DETECT, scale * scale, border);
+            case "Emboss" -> scaledConvolution(EMBOSS, scale, border);
+            case "Noise" -> noise(scale);
+            case "Gaussian Noise" -> gaussianNoise(scale);
+            case "Film Grain" -> filmGrain(scale);
+            case "Local Contrast" -> localContrast(px(24, scale), 0.6);
+            case "Median Denoise" -> medianDenoise(scale);
+            case "Highlight Boost" -> highlightBoost(scale);
+            case "Skin Smoothing" -> skinSmoothing(scale);
+            default -> null;
+        };
+        return kernel != null ? kernel.withStrength(intensity) : forEffect(name, intensity, params);
+    }
+
+    /** A size in pixels at the given image scale, rounded (callers clamp it to their minimum). */
+    private static int px(int size, double scale) {
+        return (int) Math.round(size * scale);
+    }
+
+    /** True for the effects that take a {@link BorderMode} parameter. */
+    public static boolean hasBorderMode(String name) {
+        return name.equals("Sharpen") || name.equals("Edge Detect") || name.equals("Emboss");
+    }
+
+    private static BorderMode borderMode(double ordinal) {
+        BorderMode[] modes = BorderMode.values();
+        int i = (int) ordinal;
+        if (i < 0 || i >= modes.length) throw new IllegalArgumentException("Unknown border mode: " + ordinal);
+        return modes[i];
+    }
+
+    /** Per-channel levels from {rLow, rHigh, gLow, gHigh, bLow, bHigh}. */
+    public static PointPipeline levels(double[] ranges) {
+        int[] v = new int[6];
+        for (int i = 0; i < 6; i++) v[i] = (int) Math.round(ranges[i]);
+        return PointPipeline.of(ColorOps.levels(v[0], v[1], v[2], v[3], v[4], v[5]));
+    }
+
+    /** Effect category shown in the edit stack ("Color", "Blur", "Lighting", ...). */
+    public static String categoryOf(String name) {
+        return switch (name) {
+            case "Blur", "Gaussian Blur", "Skin Smoothing" -> "Blur";
+            case "Sharpen", "Edge Detect", "Emboss", "Pixelate", "Local Contrast", "Median Denoise", "Noise", "Gaussian Noise", "Film Grain" -> "Detail";
+            case "Vignette", "Gradient", "Highlight Boost", "Brightness", "Contrast", "Auto Levels" -> "Lighting";
+            default -> "Color";
+        };
+    }
+
+    // ---------- SPATIAL ----------
+
+    /**
+     * Darkens towards the corners: each pixel is scaled by 1 - 0.3 * d^2.2,
+     * d being the distance from the centre normalised to the half diagonal.
+     */
+    public static PixelKernel vignette() {
+        return vignette(0.3, 2.2);
+    }
+
+    /**
+     * Radial vignette; the mask is built once per image size and shared through {@link Masks}.
+     */
+    public static PixelKernel vignette(double strength, double exponent) {
+        return (src, dst, x0, y0, x1, y1) ->
+                applyMask(src, dst, x0, y0, x1, y1, Masks.radial(src.fullWidth(), src.fullHeight(), strength, exponent));
+    }
+
+    /**
+     * Linear darkening ramp (e.g. a graduated sky filter) along the given direction.
+     */
+    public static PixelKernel gradient(double angleDegrees, double strength, double exponent) {
+        return (src, dst, x0, y0, x1, y1) -> applyMask(src, dst, x0, y0, x1, y1,
+                Masks.linear(src.fullWidth(), src.fullHeight(), angleDegrees, strength, exponent));
+    }
+
+    private static void applyMask(ArgbImage src, ArgbImage dst, int x0, int y0, int x1, int y1, Mask mask) {
+        int[] in = src.pixels(), out = dst.pixels();
+        int w = src.getWidth(), oy = src.originY();
+        for (int y = y0; y < y1; y++)
+            for (int i = y * w + x0, end = y * w + x1, mx = x0 + src.originX(); i < end; i++, mx++) {
+                int p = in[i], g = mask.gain(mx, y + oy);
+                out[i] = (p & 0xFF000000) | ((((p >> 16) & 0xFF) * g >> 8) << 16)
+                        | ((((p >> 8) & 0xFF) * g >> 8) << 8) | ((p & 0xFF) * g >> 8);
+            }
+    }
+
+    /**
+     * Adds the same random offset (+/-10) to all three channels of each pixel.
+     * Deterministic: see {@link Noise}.
+     */
+    public static PixelKernel noise() {
+        return noise(1);
+    }
+
+    public static PixelKernel gaussianNoise() {
+        return gaussianNoise(1);
+    }
+
+    public static PixelKernel filmGrain() {
+        return filmGrain(1);
+    }
+
+    /** The noise effects for an image scaled by {@code scale}: the amplitude falls with it. */
+    public static PixelKernel noise(double scale) {
+        return Noise.kernel(Noise.Type.UNIFORM, 10 / 255.0 * scale, Noise.DEFAULT_SEED);
+    }
+
+    public static PixelKernel gaussianNoise(double scale) {
+        return Noise.kernel(Noise.Type.GAUSSIAN, 0.04 * scale, Noise.DEFAULT_SEED);
+    }
+
+    public static PixelKernel filmGrain(double scale) {
+        return Noise.kernel(Noise.Type.FILM_GRAIN, 0.06 * scale, Noise.DEFAULT_SEED);
+    }
+
+    /** Rows per summed-area table in pixelate and local contrast (rounded up to whole blocks). */
+    private static final int BAND = 64;
+
+    /**
+     * Replaces each block x block cell with its average color, read from summed-area tables
+     * built over the tile's block-aligned span, so any block size costs the same per pixel.
+     * Cells sit on the full image's block grid; a tile reads the whole of every cell it touches,
+     * hence the halo of block - 1. Tiles are aligned to the block grid so no cell is averaged twice.
+     */
+    public static PixelKernel pixelate(int block) {
+        int size = Math.max(1, block);
+        int band = Math.max(1, BAND / size) * size;
+        return PixelKernel.spatial(size - 1, size, (src, dst, x0, y0, x1, y1) -> {
+            int[] out = dst.pixels();
+            int w = src.getWidth(), h = src.getHeight();
+            int bx0 = x0 - Math.floorMod(x0 + src.originX(), size);
+            int bx1 = Math.min(w, bx0 + (x1 - bx0 + size - 1) / size * size);
+            for (int sy = y0 - Math.floorMod(y0 + src.originY(), size); sy < y1; sy += band) {
+                IntegralImage sat = IntegralImage.of(src, bx0, sy, bx1, Math.min(h, sy + band));
+                for (int by = sy, bandEnd = Math.min(y1, sy + band); by < bandEnd; by += size)
+                    for (int bx = bx0; bx < x1; bx += size) {
+                        int avg = sat.mean(bx, by, bx + size, by + size);
+                        for (int y = Math.max(by, y0), ye = Math.min(by + size, y1); y < ye; y++)
+                            for (int i = y * w + Math.max(bx, x0), end = y * w + Math.min(bx + size, x1); i < end; i++)
+                                out[i] = avg;
+                    }
+            }
+        });
+    }
+
+    /**
+     * Local contrast with the default radius and amount.
+     */
+    public static PixelKernel localContrast() {
+        return localContrast(24, 0.6);
+    }
+
+    /** Median Denoise: a median over an 11 x 11 window, shrunk for an image scaled by {@code scale}. */
+    public static PixelKernel medianDenoise(double scale) {
+        return MedianFilter.median(px(5, scale));
+    }
+
+    /**
+     * Pushes each pixel away from the mean of its (2r+1) x (2r+1) neighbourhood:
+     * c' = c + (c - mean) * amount * 32 / (32 + sd), sd being the neighbourhood's luma standard
+     * deviation, so flat areas gain detail while already contrasty edges do not halo.
+     * Means and variances come from summed-area tables, so the radius does not affect the cost.
+     */
+    public static PixelKernel localContrast(int radius, double amount) {
+        int r = Math.max(1, radius);
+        int count = (2 * r + 1) * (2 * r + 1), half = count / 2;
+        return PixelKernel.spatial(r, 1, (src, dst, x0, y0, x1, y1) -> {
+            int[] in = src.pixels(), out = dst.pixels();
+            int w = src.getWidth();
+            for (int by = y0; by < y1; by += BAND) {
+                int by1 = Math.min(y1, by + BAND);
+                IntegralImage sat = IntegralImage.withLumaStats(src, x0 - r, by - r, x1 + r, by1 + r);
+                int span = 2 * r + 1, down = span * sat.stride;
+                for (int y = by; y < by1; y++) {
+                    int o = y * w + x0;
+                    for (int i00 = sat.index(x0 - r, y - r), end = i00 + (x1 - x0); i00 < end; i00++, o++) {
+                        int i01 = i00 + span, i10 = i00 + down, i11 = i10 + span;
+                        double mean = IntegralImage.unsigned(IntegralImage.sum(sat.luma, i00, i01, i10, i11)) / (double) count;
+                        double sq = (sat.lumaSq[i11] - sat.lumaSq[i01] - sat.lumaSq[i10] + sat.lumaSq[i00]) / (double) count;
+                        double sd = Math.sqrt(Math.max(0, sq - mean * mean));
+                        int gain = (int) Math.round(amount * 32 / (32 + sd) * 256);
+                        int p = in[o];
+                        int mr = IntegralImage.div(IntegralImage.sum(sat.r, i00, i01, i10, i11), count, half);
+                        int mg = IntegralImage.div(IntegralImage.sum(sat.g, i00, i01, i10, i11), count, half);
+                        int mb = IntegralImage.div(IntegralImage.sum(sat.b, i00, i01, i10, i11), count, half);
+                        out[o] = (p & 0xFF000000) | (push(red(p), mr, gain) << 16) | (push(green(p), mg, gain) << 8) | push(blue(p), mb, gain);
+                    }
+                }
+            }
+        });
+    }
+
+    private static int push(int c, int mean, int gain) {
+        return clamp(c + (((c - mean) * gain + 128) >> 8));
+    }
+
+    private static final double[][] SHARPEN = {
+            {0, -1, 0},
+            {-1, 5, -1},
+            {0, -1, 0}
+    };
+    private static final double[][] EDGE_DETECT = {
+            {-1, -1, -1},
+            {-1, 8, -1},
+            {-1, -1, -1}
+    };
+    private static final double[][] EMBOSS = {
+            {-2, -1, 0},
+            {-1, 1, 1},
+            {0, 1, 2}
+    };
+    private static final double[][] BOX3 = {
+            {1 / 9.0, 1 / 9.0, 1 / 9.0},
+            {1 / 9.0, 1 / 9.0, 1 / 9.0},
+            {1 / 9.0, 1 / 9.0, 1 / 9.0}
+    };
+
+    public static PixelKernel sharpen(BorderMode border) {
+        return Convolution.of(SHARPEN, border);
+    }
+
+    public static PixelKernel edgeDetect(BorderMode border) {
+        return Convolution.of(EDGE_DETECT, border);
+    }
+
+    public static PixelKernel emboss(BorderMode border) {
+        return Convolution.of(EMBOSS, border);
+    }
+
+    /**
+     * A 3x3 kernel with its weight sum kept on the centre and everything else (its derivative part)
+     * multiplied by {@code factor}.
+     */
+    private static PixelKernel scaledConvolution(double[][] kernel, double factor, BorderMode border) {
+        double sum = 0;
+        double[][] k = new double[3][3];
+        for (int y = 0; y < 3; y++)
+            for (int x = 0; x < 3; x++) {
+                sum += kernel[y][x];
+                k[y][x] = kernel[y][x] * factor;
+            }
+        k[1][1] += sum * (1 - factor);
+        return Convolution.of(k, border);
+    }
+}
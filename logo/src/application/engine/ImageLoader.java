@@ -0,0 +1,287 @@
+package application.engine;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Decodes image files off the JavaFX Application Thread, preview first.
+ * A load decodes the full image and, alongside it, a subsampled preview (ImageIO source
+ * subsampling: only every n-th pixel of every n-th row is kept, so a 24 MP JPEG yields a
+ * screen-sized image in well under the time of the full decode). The preview is shown until the
+ * full image replaces it, and is dropped if the full image gets there first.
+ * Like {@link RenderQueue}, starting a load cancels the one still in flight: both of its decodes
+ * are aborted, and results only reach the listener (on the FX thread) if nothing superseded them.
+ * Used by the editors, ImageViewPane and ImageSliderView.
+ */
+public class ImageLoader {
+
+    /** Receives the stages of a load on the FX thread. */
+    public interface Listener {
+        /** A subsampled preview; not called when the image is small enough to skip it. */
+        default void preview(Image preview) { }
+
+        /** The full image, after {@link #prepare}. */
+        void loaded(Image image);
+
+        default void failed(Exception e) {
+            System.err.println("[ImageLoader] Load failed: " + e);
+        }
+
+        /** Work on the full image before it is handed over, run on the loader thread (e.g. scaling). */
+        default Image prepare(Image image) {
+            return image;
+        }
+    }
+
+    // Two threads so the preview and the full decode of a load run side by side; on a single core
+    // they would only slow each other down, and the preview (submitted first) runs before the full decode
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(Math.min(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "image-loader-" + THREADS.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+
+    private Load current;
+
+    /** Starts loading a file with a preview covering the view's fit size in screen pixels. */
+    public void load(File file, ImageView view, Listener listener) {
+        load(file, screenWidth(view), screenHeight(view), listener);
+    }
+
+    /**
+     * Starts loading a file, cancelling the load in flight. Must be called on the FX thread.
+     * @param previewWidth  box the preview should at least cover (usually the view size in pixels)
+     * @param previewHeight see previewWidth
+     */
+    public void load(File file, int previewWidth, int previewHeight, Listener listener) {
+        Load load = start();
+        submitPreview(load, file, previewWidth, previewHeight, listener::preview);
+        load.full = EXECUTOR.submit(() -> {
+            try {
+                Image full = decode(file, load.fullDecode);
+                load.decoded = true;
+                if (load.cancelled) return;
+                Image prepared = listener.prepare(full);
+                deliver(load, () -> {
+                    current = null;
+                    listener.loaded(prepared);
+                });
+            } catch (CancellationException e) {
+                // Superseded
+            } catch (Exception e) {
+                deliver(load, () -> {
+                    current = null;
+                    listener.failed(e);
+                });
+            }
+        });
+    }
+
+    /**
+     * Decodes only a preview of a file, for callers that decode the full image their own way
+     * (e.g. into a TiledImageStore). Cancel it once the full image is shown.
+     */
+    public void loadPreview(File file, ImageView view, Consumer<Image> onPreview) {
+        submitPreview(start(), file, screenWidth(view), screenHeight(view), onPreview);
+    }
+
+    /** Cancels the load in flight, if any; nothing more of it reaches its listener. */
+    public void cancel() {
+        if (current != null) {
+            current.cancelled = true;
+            if (current.preview != null) current.preview.cancel(false);
+            if (current.full != null) current.full.cancel(false);
+            current = null;
+        }
+    }
+
+    private Load start() {
+        cancel();
+        Load load = new Load();
+        current = load;
+        return load;
+    }
+
+    private void submitPreview(Load load, File file, int width, int height, Consumer<Image> onPreview) {
+        load.preview = EXECUTOR.submit(() -> {
+            try {
+                Image preview = preview(file, width, height, load);
+                if (preview != null) deliver(load, () -> onPreview.accept(preview));
+            } catch (CancellationException e) {
+                // Superseded, or the full image was quicker
+            } catch (Exception e) {
+                // A preview is optional; failures to decode are reported by the full decode
+                System.err.println("[ImageLoader] No preview for " + file.getName() + ": " + e);
+            }
+        });
+    }
+
+    private void deliver(Load load, Runnable step) {
+        Platform.runLater(() -> {
+            if (current == load && !load.cancelled) step.run();
+        });
+    }
+
+    private static int screenWidth(ImageView view) {
+        return (int) Math.ceil(view.getFitWidth() * outputScale(view));
+    }
+
+    private static int screenHeight(ImageView view) {
+        return (int) Math.ceil(view.getFitHeight() * outputScale(view));
+    }
+
+    private static double outputScale(ImageView view) {
+        if (view.getScene() == null || view.getScene().getWindow() == null) return 1;
+        return view.getScene().getWindow().getOutputScaleX();
+    }
+
+    /**
+     * Subsampled decode of a JPEG covering at least maxWidth x maxHeight, or null if the image is
+     * not more than twice that size (the full decode is then quick anyway) or not a JPEG. Other
+     * ImageIO readers still inflate every row, and their subsampled read is no quicker than a full one.
+     * @throws CancellationException if the monitor cancelled the decode
+     */
+    public static Image preview(File file, int maxWidth, int maxHeight, RenderMonitor monitor) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                if (!"jpeg".equalsIgnoreCase(reader.getFormatName())) return null;
+                reader.setInput(in, true, true);
+                int w = reader.getWidth(0), h = reader.getHeight(0);
+                int f = Math.min(w / Math.max(1, maxWidth), h / Math.max(1, maxHeight));
+                if (f < 2) return null;
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(f, f, 0, 0);
+                return read(reader, param, monitor);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Full-resolution decode. JavaFX decodes straight into the image it returns, so only one
+     * copy of the pixels is ever held; it runs on JavaFX's own loader thread while the calling
+     * thread waits, and is cancelled there as soon as the monitor is.
+     * @throws IOException if the file cannot be decoded
+     * @throws CancellationException if the monitor cancelled the decode
+     */
+    public static Image decode(File file, RenderMonitor monitor) throws IOException, InterruptedException {
+        Image img = new Image(file.toURI().toString(), true);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        // The image's properties change on the FX thread, so watch them from there
+        Platform.runLater(() -> {
+            InvalidationListener check = o -> {
+                if (img.isError() || img.getProgress() >= 1) done.complete(null);
+            };
+            img.progressProperty().addListener(check);
+            img.errorProperty().addListener(check);
+            check.invalidated(null);
+        });
+        while (!done.isDone()) {
+            if (monitor.isCancelled()) {
+                Platform.runLater(img::cancel);
+                throw new CancellationException("Load cancelled");
+            }
+            try {
+                done.get(20, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Poll the monitor again
+            }
+        }
+        if (img.isError())
+            throw new IOException("Could not decode " + file.getName(), img.getException());
+        return img;
+    }
+
+    /** Reads the (subsampled) first image of the reader's input, aborting when the monitor is cancelled. */
+    private static Image read(ImageReader reader, ImageReadParam param, RenderMonitor monitor) throws IOException {
+        Abort abort = new Abort(monitor);
+        reader.addIIOReadProgressListener(abort);
+        reader.addIIOReadUpdateListener(abort);
+        BufferedImage img = reader.read(0, param);
+        if (monitor.isCancelled()) throw new CancellationException("Load cancelled");
+        int w = img.getWidth(), h = img.getHeight();
+        int[] px = new int[w * h];
+        img.getRGB(0, 0, w, h, px, 0, w);
+        return new ArgbImage(w, h, px).toImage();
+    }
+
+    /** One load: the monitors its decodes poll, and the tasks to cancel. */
+    private static final class Load implements RenderMonitor {
+        volatile boolean cancelled;
+        // Set once the full image is decoded; the preview is of no use after that
+        volatile boolean decoded;
+        Future<?> preview, full;
+
+        // The full decode only stops for a cancelled load
+        final RenderMonitor fullDecode = new RenderMonitor() {
+            @Override public boolean isCancelled() { return cancelled; }
+            @Override public void progress(long done, long total) { }
+        };
+
+        @Override public boolean isCancelled() { return cancelled || decoded; }
+        @Override public void progress(long done, long total) { }
+    }
+
+    /** Aborts an ImageIO decode as soon as its monitor is cancelled (checked per decoded pass and row band). */
+    private static final class Abort implements IIOReadProgressListener, IIOReadUpdateListener {
+        private final RenderMonitor monitor;
+
+        Abort(RenderMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        private void check(ImageReader source) {
+            if (monitor.isCancelled()) source.abort();
+        }
+
+        @Override public void imageProgress(ImageReader source, float percentageDone) { check(source); }
+        @Override public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                                          int periodX, int periodY, int[] bands) { check(source); }
+        @Override public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                          int minX, int minY, int periodX, int periodY, int[] bands) { check(source); }
+        @Override public void passComplete(ImageReader source, BufferedImage theImage) { check(source); }
+        @Override public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+                                                   int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) { }
+        @Override public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width,
+                                              int height, int periodX, int periodY, int[] bands) { }
+        @Override public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) { }
+        @Override public void sequenceStarted(ImageReader source, int minIndex) { }
+        @Override public void sequenceComplete(ImageReader source) { }
+        @Override public void imageStarted(ImageReader source, int imageIndex) { }
+        @Override public void imageComplete(ImageReader source) { }
+        @Override public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) { }
+        @Override public void thumbnailProgress(ImageReader source, float percentageDone) { }
+        @Override public void thumbnailComplete(ImageReader source) { }
+        @Override public void readAborted(ImageReader source) { }
+    }
+}
@@ -0,0 +1,86 @@
+package application.engine;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritablePixelFormat;
+
+import java.util.Arrays;
+
+/**
+ * Screen-sized stand-ins for large images, used for interactive previews.
+ * The source is averaged over whole f x f blocks (f chosen so the result fits the box),
+ * reading one strip of f rows at a time so a 50 MP original is never copied in full.
+ * Works on JavaFX images and on {@link TiledImageStore}s larger than the heap alike.
+ */
+public final class ImageProxy {
+
+    private ImageProxy() { }
+
+    /**
+     * Downsamples {@code img} to fit within maxWidth x maxHeight; returns a full-size copy if it already fits.
+     */
+    public static ArgbImage fit(Image img, int maxWidth, int maxHeight) {
+        int w = (int) img.getWidth(), h = (int) img.getHeight();
+        PixelReader reader = img.getPixelReader();
+        if (reader == null)
+            throw new IllegalArgumentException("Image has no pixel reader (still loading?)");
+        int f = factor(w, h, maxWidth, maxHeight);
+        if (f == 1) return ArgbImage.of(img);
+        return average(w, h, f, (y0, rows, strip) ->
+                reader.getPixels(0, y0, w, rows, WritablePixelFormat.getIntArgbInstance(), strip, 0, w));
+    }
+
+    /**
+     * Downsamples a store to fit within maxWidth x maxHeight; returns a full-size heap copy if it
+     * already fits, so only call it with a box that fits the heap.
+     */
+    public static ArgbImage fit(TiledImageStore store, int maxWidth, int maxHeight) {
+        int w = store.getWidth(), h = store.getHeight();
+        int f = factor(w, h, maxWidth, maxHeight);
+        if (f == 1) return store.read(0, 0, w, h);
+        return average(w, h, f, (y0, rows, strip) ->
+                store.copyTo(ArgbImage.window(strip, 0, y0, w, y0 + rows, w, h)));
+    }
+
+    /** Fills {@code strip} with {@code rows} full rows starting at row y0. */
+    @FunctionalInterface
+    private interface StripReader {
+        void read(int y0, int rows, int[] strip);
+    }
+
+    private static ArgbImage average(int w, int h, int f, StripReader reader) {
+        int ow = (w + f - 1) / f, oh = (h + f - 1) / f;
+        int[] out = new int[ow * oh];
+        int[] strip = new int[w * f];
+        int[] a = new int[ow], r = new int[ow], g = new int[ow], b = new int[ow];
+        for (int oy = 0; oy < oh; oy++) {
+            int y0 = oy * f, rows = Math.min(f, h - y0);
+            reader.read(y0, rows, strip);
+            Arrays.fill(a, 0);
+            Arrays.fill(r, 0);
+            Arrays.fill(g, 0);
+            Arrays.fill(b, 0);
+            for (int y = 0; y < rows; y++)
+                for (int x = 0, i = y * w; x < w; x++, i++) {
+                    int p = strip[i], ox = x / f;
+                    a[ox] += p >>> 24;
+                    r[ox] += (p >> 16) & 0xFF;
+                    g[ox] += (p >> 8) & 0xFF;
+                    b[ox] += p & 0xFF;
+                }
+            for (int ox = 0; ox < ow; ox++) {
+                int count = rows * (Math.min(w, (ox + 1) * f) - ox * f), half = count / 2;
+                out[oy * ow + ox] = Argb.pack((a[ox] + half) / count, (r[ox] + half) / count,
+                        (g[ox] + half) / count, (b[ox] + half) / count);
+            }
+        }
+        return new ArgbImage(ow, oh, out);
+    }
+
+    /** Smallest integer reduction that makes w x h fit the box. */
+    static int factor(int w, int h, int maxWidth, int maxHeight) {
+        int fw = (w + Math.max(1, maxWidth) - 1) / Math.max(1, maxWidth);
+        int fh = (h + Math.max(1, maxHeight) - 1) / Math.max(1, maxHeight);
+        return Math.max(1, Math.max(fw, fh));
+    }
+}
@@ -0,0 +1,161 @@
+package application.engine;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Mipmap levels of an image (1/2, 1/4, 1/8 ... of each dimension) for zoomed-out display.
+ * Level k is the 2x2 average of level k - 1, built lazily in {@value #TILE} px tiles: asking for a
+ * region of level k computes only the missing tiles it covers, from the tiles below them.
+ * All levels together hold at most a third of the base image's pixels.
+ * The base is not copied; only the part of it under the requested regions has to be valid.
+ * Levels are {@link TiledImageStore}s like the base, and each tile is built from a heap window
+ * of the tiles below it; {@link #close()} frees them.
+ */
+public final class ImagePyramid implements AutoCloseable {
+
+    /** Tile edge within each level. */
+    static final int TILE = TiledImageStore.TILE;
+
+    private TiledImageStore base;
+    // levels.get(k - 1) is level k; allocated on first use
+    private final List<TiledImageStore> levels = new ArrayList<>();
+    private final List<BitSet> done = new ArrayList<>();
+
+    public ImagePyramid(TiledImageStore base) {
+        this.base = base;
+    }
+
+    public TiledImageStore getBase() {
+        return base;
+    }
+
+    /**
+     * Points the pyramid at a new base and forgets every built tile; level buffers are kept
+     * when the size is unchanged.
+     */
+    public void reset(TiledImageStore newBase) {
+        if (newBase.getWidth() != base.getWidth() || newBase.getHeight() != base.getHeight()) close();
+        base = newBase;
+        for (BitSet d : done) d.clear();
+        while (done.size() > levels.size()) done.remove(done.size() - 1);
+    }
+
+    /** Number of levels including the base; the last one is a single pixel in its smaller dimension. */
+    public int levelCount() {
+        return levelCount(base.getWidth(), base.getHeight());
+    }
+
+    static int levelCount(int width, int height) {
+        int k = 0;
+        for (int w = width, h = height; w > 1 && h > 1; w = (w + 1) / 2, h = (h + 1) / 2) k++;
+        return k + 1;
+    }
+
+    /**
+     * Coarsest level of a width x height image whose resolution is still at least {@code scale}
+     * of the base, so the view only ever shrinks it (by less than 2x) and never enlarges it.
+     */
+    public static int levelFor(double scale, int width, int height) {
+        if (!(scale < 1)) return 0;
+        int k = (int) Math.floor(Math.log(1 / scale) / Math.log(2) + 1e-9);
+        return Math.min(k, levelCount(width, height) - 1);
+    }
+
+    /**
+     * Level k with at least the region [x0, x1) x [y0, y1) (in level-k pixels) up to date.
+     * The caller must have the base valid under the same region scaled by 2^k, rounded out to
+     * whole tiles of (TILE << k) base pixels.
+     */
+    public TiledImageStore level(int k, int x0, int y0, int x1, int y1) {
+        if (k == 0) return base;
+        TiledImageStore img = levelBuffer(k);
+        x0 = Math.max(0, x0); y0 = Math.max(0, y0);
+        x1 = Math.min(img.getWidth(), x1); y1 = Math.min(img.getHeight(), y1);
+        if (x1 <= x0 || y1 <= y0) return img;
+        int tx0 = x0 / TILE, ty0 = y0 / TILE, tx1 = (x1 - 1) / TILE, ty1 = (y1 - 1) / TILE;
+        BitSet d = done.get(k - 1);
+        int cols = cols(img);
+        List<int[]> missing = new ArrayList<>();
+        for (int ty = ty0; ty <= ty1; ty++)
+            for (int tx = tx0; tx <= tx1; tx++)
+                if (!d.get(ty * cols + tx))
+                    missing.add(new int[]{tx * TILE, ty * TILE,
+                            Math.min(img.getWidth(), (tx + 1) * TILE), Math.min(img.getHeight(), (ty + 1) * TILE)});
+        if (missing.isEmpty()) return img;
+
+        // The level below must cover the missing tiles' footprint first
+        int[] box = bounds(missing);
+        TiledImageStore below = level(k - 1, 2 * box[0], 2 * box[1], 2 * box[2], 2 * box[3]);
+        PixelEngine.forEachRegion(missing, RenderMonitor.NONE, t -> {
+            ArgbImage src = below.read(2 * t[0], 2 * t[1],
+                    Math.min(below.getWidth(), 2 * t[2]), Math.min(below.getHeight(), 2 * t[3]));
+            ArgbImage dst = ArgbImage.window(t[0], t[1], t[2], t[3], img.getWidth(), img.getHeight());
+            downsample(src, dst);
+            img.copyFrom(dst, t[0], t[1], t[2], t[3]);
+        });
+        for (int[] t : missing) d.set(t[1] / TILE * cols + t[0] / TILE);
+        return img;
+    }
+
+    /** Bytes held by the levels above the base (at most a third of the base). */
+    public long bytes() {
+        long n = 0;
+        for (TiledImageStore l : levels) n += l.byteSize();
+        return n;
+    }
+
+    /** Frees the levels; they are rebuilt on the next request. */
+    @Override
+    public void close() {
+        for (TiledImageStore l : levels) l.close();
+        levels.clear();
+        done.clear();
+    }
+
+    private TiledImageStore levelBuffer(int k) {
+        while (levels.size() < k) {
+            TiledImageStore below = levels.isEmpty() ? base : levels.get(levels.size() - 1);
+            levels.add(new TiledImageStore((below.getWidth() + 1) / 2, (below.getHeight() + 1) / 2));
+        }
+        while (done.size() < k) done.add(new BitSet());
+        return levels.get(k - 1);
+    }
+
+    private static int cols(TiledImageStore img) {
+        return (img.getWidth() + TILE - 1) / TILE;
+    }
+
+    private static int[] bounds(List<int[]> tiles) {
+        int[] b = {Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0};
+        for (int[] t : tiles) {
+            b[0] = Math.min(b[0], t[0]); b[1] = Math.min(b[1], t[1]);
+            b[2] = Math.max(b[2], t[2]); b[3] = Math.max(b[3], t[3]);
+        }
+        return b;
+    }
+
+    /**
+     * 2x2 box average of a window of the level below into a window of this level that it fully
+     * covers (up to the odd last row or column, which repeats the last pixel).
+     */
+    private static void downsample(ArgbImage src, ArgbImage dst) {
+        int[] in = src.pixels(), out = dst.pixels();
+        int sw = src.getWidth(), sh = src.getHeight(), dw = dst.getWidth(), dh = dst.getHeight();
+        for (int y = 0; y < dh; y++) {
+            int r0 = 2 * y * sw, r1 = Math.min(2 * y + 1, sh - 1) * sw;
+            for (int x = 0; x < dw; x++) {
+                int c0 = 2 * x, c1 = Math.min(2 * x + 1, sw - 1);
+                out[y * dw + x] = average(in[r0 + c0], in[r0 + c1], in[r1 + c0], in[r1 + c1]);
+            }
+        }
+    }
+
+    private static int average(int p, int q, int r, int s) {
+        // Each channel is summed in its own byte lane of two ints (alpha/green and red/blue)
+        int ag = ((p >>> 8) & 0xFF00FF) + ((q >>> 8) & 0xFF00FF) + ((r >>> 8) & 0xFF00FF) + ((s >>> 8) & 0xFF00FF) + 0x20002;
+        int rb = (p & 0xFF00FF) + (q & 0xFF00FF) + (r & 0xFF00FF) + (s & 0xFF00FF) + 0x20002;
+        return ((ag << 6) & 0xFF00FF00) | ((rb >>> 2) & 0xFF00FF);
+    }
+}
@@ -0,0 +1,140 @@
+package application.engine;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Red, green, blue and luma histograms of an image, with the min/max, mean and percentile
+ * queries built on them. Computed by a parallel reduction: row bands are counted into
+ * private 256-bin tables on the {@link PixelEngine} pool and the tables are summed on the way back up,
+ * so no counter is shared between threads. Fully transparent pixels are not counted.
+ * Used by the photo editor's histogram panel and by {@link AutoAdjust}.
+ */
+public final class ImageStatistics {
+
+    public enum Channel { RED, GREEN, BLUE, LUMA }
+
+    /** Rows below this many pixels are counted by one task. */
+    private static final int GRAIN = 64 * 1024;
+    private static final int BINS = 256;
+
+    // Four histograms back to back, indexed by Channel.ordinal() * BINS + value
+    private final long[] bins;
+    private final long count;
+
+    private ImageStatistics(long[] bins) {
+        this.bins = bins;
+        long n = 0;
+        for (int v = 0; v < BINS; v++) n += bins[Channel.LUMA.ordinal() * BINS + v];
+        this.count = n;
+    }
+
+    /** Statistics of the whole image. */
+    public static ImageStatistics of(ArgbImage img) {
+        return of(img, 0, 0, img.getWidth(), img.getHeight());
+    }
+
+    /** Statistics of the region [x0, x1) x [y0, y1). */
+    public static ImageStatistics of(ArgbImage img, int x0, int y0, int x1, int y1) {
+        x0 = Math.max(0, x0); y0 = Math.max(0, y0);
+        x1 = Math.min(img.getWidth(), x1); y1 = Math.min(img.getHeight(), y1);
+        if (x1 <= x0 || y1 <= y0) return new ImageStatistics(new long[4 * BINS]);
+        int rowsPerTask = Math.max(1, GRAIN / (x1 - x0));
+        return new ImageStatistics(PixelEngine.pool().invoke(new CountTask(img, x0, x1, y0, y1, rowsPerTask)));
+    }
+
+    /** Number of pixels counted. */
+    public long count() {
+        return count;
+    }
+
+    /** Copy of one channel's 256-bin histogram. */
+    public long[] histogram(Channel c) {
+        long[] h = new long[BINS];
+        System.arraycopy(bins, c.ordinal() * BINS, h, 0, BINS);
+        return h;
+    }
+
+    /** Largest bin of one channel (for scaling a plot). */
+    public long peak(Channel c) {
+        long peak = 0;
+        for (int v = 0, o = c.ordinal() * BINS; v < BINS; v++) peak = Math.max(peak, bins[o + v]);
+        return peak;
+    }
+
+    public int min(Channel c) {
+        return percentile(c, 0);
+    }
+
+    public int max(Channel c) {
+        int o = c.ordinal() * BINS;
+        for (int v = BINS - 1; v > 0; v--)
+            if (bins[o + v] > 0) return v;
+        return 0;
+    }
+
+    public double mean(Channel c) {
+        if (count == 0) return 0;
+        long sum = 0;
+        for (int v = 0, o = c.ordinal() * BINS; v < BINS; v++) sum += v * bins[o + v];
+        return (double) sum / count;
+    }
+
+    /**
+     * Smallest value v such that at least {@code fraction} of the pixels are at or below v
+     * (0 gives the minimum, 1 the maximum).
+     */
+    public int percentile(Channel c, double fraction) {
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(1, fraction)) * count));
+        long seen = 0;
+        for (int v = 0, o = c.ordinal() * BINS; v < BINS; v++) {
+            seen += bins[o + v];
+            if (seen >= target) return v;
+        }
+        return BINS - 1;
+    }
+
+    /** Counts a band of rows, splitting it in halves while it is above the grain. */
+    @SuppressWarnings("serial")
+    private static final class CountTask extends RecursiveTask<long[]> {
+        private final ArgbImage img;
+        private final int x0, x1, y0, y1, rowsPerTask;
+
+        CountTask(ArgbImage img, int x0, int x1, int y0, int y1, int rowsPerTask) {
+            this.img = img;
+            this.x0 = x0; this.x1 = x1; this.y0 = y0; this.y1 = y1;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (y1 - y0 > rowsPerTask) {
+                int mid = (y0 + y1) >>> 1;
+                CountTask top = new CountTask(img, x0, x1, y0, mid, rowsPerTask);
+                top.fork();
+                long[] sum = new CountTask(img, x0, x1, mid, y1, rowsPerTask).compute();
+                long[] other = top.join();
+                for (int i = 0; i < sum.length; i++) sum[i] += other[i];
+                return sum;
+            }
+            // int bins are safe within a task (at most GRAIN-ish pixels per band)
+            int[] local = new int[4 * BINS];
+            int[] in = img.pixels();
+            int w = img.getWidth();
+            int g = BINS, b = 2 * BINS, l = 3 * BINS;
+            for (int y = y0; y < y1; y++)
+                for (int i = y * w + x0, end = y * w + x1; i < end; i++) {
+                    int p = in[i];
+                    if ((p >>> 24) == 0) continue;
+                    int pr = (p >> 16) & 0xFF, pg = (p >> 8) & 0xFF, pb = p & 0xFF;
+                    local[pr]++;
+                    local[g + pg]++;
+                    local[b + pb]++;
+                    local[l + ((77 * pr + 150 * pg + 29 * pb + 128) >> 8)]++;
+                }
+            long[] out = new long[4 * BINS];
+            for (int i = 0; i < out.length; i++) out[i] = local[i];
+            return out;
+        }
+    }
+}
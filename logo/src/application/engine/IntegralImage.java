@@ -0,0 +1,150 @@
+package application.engine;
+
+/**
+ * Summed-area tables of one rectangle of an image: one table per channel, built in a single pass,
+ * after which the sum or mean of any sub-rectangle costs four lookups regardless of its size.
+ * Coordinates outside the image repeat the border pixel, so a table may cover a tile plus its halo.
+ * <p>
+ * Tables are plain ints and are allowed to wrap: a rectangle sum is a difference of four entries,
+ * which is exact modulo 2^32 and therefore exact outright while the true sum stays below 2^32
+ * (guaranteed by the area limit checked on construction). Optional luma statistics add a table of
+ * luma and one of squared luma (as longs) for local means and variances.
+ * Used by pixelate, box blur and local contrast.
+ */
+public final class IntegralImage {
+
+    /** Largest area whose 8-bit channel sums cannot exceed 2^32. */
+    static final long MAX_AREA = (1L << 32) / 255;
+
+    private final int x0, y0, width, height;
+    final int stride;
+    final int[] a, r, g, b;
+    final int[] luma;
+    final long[] lumaSq;
+
+    private IntegralImage(int x0, int y0, int width, int height, boolean lumaStats) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int n = stride * (height + 1);
+        a = new int[n];
+        r = new int[n];
+        g = new int[n];
+        b = new int[n];
+        luma = lumaStats ? new int[n] : null;
+        lumaSq = lumaStats ? new long[n] : null;
+    }
+
+    /** Tables over [x0, x1) x [y0, y1) of {@code src}. */
+    public static IntegralImage of(ArgbImage src, int x0, int y0, int x1, int y1) {
+        return build(src, x0, y0, x1, y1, false);
+    }
+
+    /** Tables over [x0, x1) x [y0, y1) of {@code src}, plus luma and squared-luma tables. */
+    public static IntegralImage withLumaStats(ArgbImage src, int x0, int y0, int x1, int y1) {
+        return build(src, x0, y0, x1, y1, true);
+    }
+
+    private static IntegralImage build(ArgbImage src, int x0, int y0, int x1, int y1, boolean lumaStats) {
+        int w = x1 - x0, h = y1 - y0;
+        if (w <= 0 || h <= 0)
+            throw new IllegalArgumentException("Empty region: " + w + "x" + h);
+        if ((long) w * h > MAX_AREA)
+            throw new IllegalArgumentException("Region too large for 32-bit sums: " + w + "x" + h);
+        IntegralImage sat = new IntegralImage(x0, y0, w, h, lumaStats);
+        int[] in = src.pixels();
+        int iw = src.getWidth(), ih = src.getHeight();
+        int[] xs = new int[w];
+        for (int x = 0; x < w; x++) xs[x] = Math.max(0, Math.min(iw - 1, x0 + x));
+
+        int s = sat.stride;
+        for (int y = 0; y < h; y++) {
+            int base = Math.max(0, Math.min(ih - 1, y0 + y)) * iw;
+            int o = (y + 1) * s + 1;
+            int ra = 0, rr = 0, rg = 0, rb = 0, rl = 0;
+            long rq = 0;
+            for (int x = 0; x < w; x++, o++) {
+                int p = in[base + xs[x]];
+                int pr = (p >> 16) & 0xFF, pg = (p >> 8) & 0xFF, pb = p & 0xFF;
+                ra += p >>> 24; rr += pr; rg += pg; rb += pb;
+                sat.a[o] = sat.a[o - s] + ra;
+                sat.r[o] = sat.r[o - s] + rr;
+                sat.g[o] = sat.g[o - s] + rg;
+                sat.b[o] = sat.b[o - s] + rb;
+                if (lumaStats) {
+                    int l = (77 * pr + 150 * pg + 29 * pb + 128) >> 8;
+                    rl += l;
+                    rq += l * l;
+                    sat.luma[o] = sat.luma[o - s] + rl;
+                    sat.lumaSq[o] = sat.lumaSq[o - s] + rq;
+                }
+            }
+        }
+        return sat;
+    }
+
+    public int getX() { return x0; }
+    public int getY() { return y0; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /**
+     * Mean colour of the image rectangle [x0, x1) x [y0, y1) as packed ARGB, each channel
+     * rounded half up: (sum + count / 2) / count, the same as summing the pixels one by one.
+     * The rectangle is clipped to the covered area and must overlap it.
+     */
+    public int mean(int x0, int y0, int x1, int y1) {
+        int i00 = corner(x0, y0), i01 = corner(x1, y0), i10 = corner(x0, y1), i11 = corner(x1, y1);
+        int count = area(x0, y0, x1, y1), half = count / 2;
+        return Argb.pack(div(sum(a, i00, i01, i10, i11), count, half), div(sum(r, i00, i01, i10, i11), count, half),
+                div(sum(g, i00, i01, i10, i11), count, half), div(sum(b, i00, i01, i10, i11), count, half));
+    }
+
+    /** Mean luma (0..255) of the clipped rectangle; needs {@link #withLumaStats}. */
+    public double lumaMean(int x0, int y0, int x1, int y1) {
+        int i00 = corner(x0, y0), i01 = corner(x1, y0), i10 = corner(x0, y1), i11 = corner(x1, y1);
+        return unsigned(sum(luma, i00, i01, i10, i11)) / (double) area(x0, y0, x1, y1);
+    }
+
+    /** Luma variance of the clipped rectangle; needs {@link #withLumaStats}. */
+    public double lumaVariance(int x0, int y0, int x1, int y1) {
+        int i00 = corner(x0, y0), i01 = corner(x1, y0), i10 = corner(x0, y1), i11 = corner(x1, y1);
+        double n = area(x0, y0, x1, y1);
+        double mean = unsigned(sum(luma, i00, i01, i10, i11)) / n;
+        double sq = (lumaSq[i11] - lumaSq[i01] - lumaSq[i10] + lumaSq[i00]) / n;
+        return Math.max(0, sq - mean * mean);
+    }
+
+    /** Unclipped table index of the corner above-left of image pixel (x, y), for inner loops. */
+    int index(int x, int y) {
+        return (y - y0) * stride + (x - x0);
+    }
+
+    /** Table index of the corner above-left of image pixel (x, y), clipped to the covered area. */
+    private int corner(int x, int y) {
+        int cx = Math.max(0, Math.min(width, x - x0)), cy = Math.max(0, Math.min(height, y - y0));
+        return cy * stride + cx;
+    }
+
+    private int area(int x0, int y0, int x1, int y1) {
+        int w = Math.min(width, x1 - this.x0) - Math.max(0, x0 - this.x0);
+        int h = Math.min(height, y1 - this.y0) - Math.max(0, y0 - this.y0);
+        if (w <= 0 || h <= 0)
+            throw new IllegalArgumentException("Rectangle outside the table");
+        return w * h;
+    }
+
+    static int sum(int[] t, int i00, int i01, int i10, int i11) {
+        return t[i11] - t[i01] - t[i10] + t[i00];
+    }
+
+    static long unsigned(int sum) {
+        return sum & 0xFFFFFFFFL;
+    }
+
+    static int div(int sum, int count, int half) {
+        return (int) ((unsigned(sum) + half) / count);
+    }
+}
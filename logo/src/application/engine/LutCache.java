@@ -0,0 +1,48 @@
+package application.engine;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Small LRU cache of compiled {@link ChannelCurves}, keyed by effect name and parameters,
+ * so repeated applications and slider positions reuse the same tables.
+ */
+public final class LutCache {
+
+    private static final int MAX_ENTRIES = 128;
+
+    private static final Map<List<Object>, ChannelCurves> CACHE =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, ChannelCurves> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private LutCache() { }
+
+    /**
+     * Returns the cached curves for the key, building them on first use.
+     * @param key effect name followed by its parameters, e.g. {@code List.of("tint", 1.1, 1.0, 0.9)}
+     */
+    public static ChannelCurves get(List<Object> key, Supplier<ChannelCurves> builder) {
+        synchronized (CACHE) {
+            ChannelCurves lut = CACHE.get(key);
+            if (lut != null) return lut;
+        }
+        // Building is cheap (768 evaluations); a rare duplicate build is harmless
+        ChannelCurves lut = builder.get();
+        synchronized (CACHE) {
+            CACHE.put(key, lut);
+        }
+        return lut;
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+}
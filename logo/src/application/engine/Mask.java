@@ -0,0 +1,45 @@
+package application.engine;
+
+/**
+ * Per-pixel gain for position-dependent effects, in 8-bit fixed point (256 = unchanged).
+ * Built once per image size and parameter set by {@link Masks} and shared read-only.
+ * Masks too large to cache are evaluated per pixel instead (see {@link Masks}).
+ */
+public final class Mask {
+
+    /** Gain of a pixel of the full image, for masks computed on the fly. */
+    @FunctionalInterface
+    interface Source {
+        int gain(int x, int y);
+    }
+
+    private final int width, height;
+    private final short[] gain;
+    private final Source source;
+
+    Mask(int width, int height, short[] gain) {
+        this.width = width;
+        this.height = height;
+        this.gain = gain;
+        this.source = null;
+    }
+
+    Mask(int width, int height, Source source) {
+        this.width = width;
+        this.height = height;
+        this.gain = null;
+        this.source = source;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** Gain at pixel (x, y) of the full image, 0..256. */
+    public int gain(int x, int y) {
+        return gain != null ? gain[y * width + x] : source.gain(x, y);
+    }
+
+    long bytes() {
+        return gain != null ? 2L * gain.length : 0;
+    }
+}
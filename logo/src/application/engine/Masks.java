@@ -0,0 +1,145 @@
+package application.engine;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Generator and bounded cache for spatial {@link Mask}s.
+ * Every mask is 1 - strength * t^exponent, where t runs 0..1 either from the centre to the
+ * corners (radial) or across the image along a direction (linear); the exponent shapes the falloff.
+ * Masks are keyed by size and parameters, so batches of same-sized photos build each mask once.
+ * Tiles that ask for a mask while it is being built wait for the first builder.
+ * A mask that would not fit the cache at all (images of about 100 MP and up, less on a small heap) is not stored:
+ * its gains are computed per pixel from small tables instead.
+ */
+public final class Masks {
+
+    /** Total size of cached masks (a 24 MP mask takes 48 MB), and never more than an eighth of the heap. */
+    private static final long MAX_BYTES = Math.min(192L << 20, Runtime.getRuntime().maxMemory() / 8);
+
+    private static final Map<List<Object>, CompletableFuture<Mask>> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes;
+
+    private Masks() { }
+
+    /**
+     * Radial falloff: 1 at the centre, 1 - strength at the corners.
+     */
+    public static Mask radial(int width, int height, double strength, double exponent) {
+        double cx = width / 2.0, cy = height / 2.0, maxDist = Math.sqrt(cx * cx + cy * cy);
+        if (!fits(width, height)) {
+            // Falloff tabulated over the squared normalised distance, so no sqrt or pow per pixel
+            int steps = 1 << 16;
+            short[] table = new short[steps + 1];
+            for (int i = 0; i <= steps; i++) table[i] = level(Math.sqrt(i / (double) steps), strength, exponent);
+            double norm = steps / (maxDist * maxDist);
+            return new Mask(width, height, (x, y) -> {
+                double dx = x + 0.5 - cx, dy = y + 0.5 - cy;
+                return table[(int) ((dx * dx + dy * dy) * norm + 0.5)];
+            });
+        }
+        return get(List.of("radial", width, height, strength, exponent), () -> {
+            short[] g = new short[width * height];
+            // Distances are measured to pixel centres, so the mask is mirror-symmetric about both
+            // axes: evaluate the top-left quadrant and copy it out
+            int qw = (width + 1) / 2, qh = (height + 1) / 2;
+            for (int y = 0; y < qh; y++) {
+                double dy = y + 0.5 - cy;
+                int top = y * width, bottom = (height - 1 - y) * width;
+                for (int x = 0; x < qw; x++) {
+                    double dx = x + 0.5 - cx;
+                    short v = level(Math.sqrt(dx * dx + dy * dy) / maxDist, strength, exponent);
+                    g[top + x] = g[top + width - 1 - x] = g[bottom + x] = g[bottom + width - 1 - x] = v;
+                }
+            }
+            return new Mask(width, height, g);
+        });
+    }
+
+    /**
+     * Linear falloff along {@code angleDegrees} (0 = left to right, 90 = top to bottom):
+     * 1 on the leading edge, 1 - strength on the far edge.
+     */
+    public static Mask linear(int width, int height, double angleDegrees, double strength, double exponent) {
+        double ux = Math.cos(Math.toRadians(angleDegrees)), uy = Math.sin(Math.toRadians(angleDegrees));
+        // Project the corners to find the range of the ramp
+        double lo = Math.min(0, ux * (width - 1)) + Math.min(0, uy * (height - 1));
+        double hi = Math.max(0, ux * (width - 1)) + Math.max(0, uy * (height - 1));
+        double span = Math.max(hi - lo, 1e-9);
+        // t is linear along each row, so a falloff table over the ramp saves the pow per pixel
+        int steps = 4096;
+        short[] table = new short[steps + 1];
+        for (int i = 0; i <= steps; i++) table[i] = level(i / (double) steps, strength, exponent);
+        if (!fits(width, height))
+            return new Mask(width, height, (x, y) -> table[(int) ((ux * x + uy * y - lo) / span * steps + 0.5)]);
+        return get(List.of("linear", width, height, angleDegrees, strength, exponent), () -> {
+            short[] g = new short[width * height];
+            for (int y = 0; y < height; y++)
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    double t = (ux * x + uy * y - lo) / span;
+                    g[i] = table[(int) (t * steps + 0.5)];
+                }
+            return new Mask(width, height, g);
+        });
+    }
+
+    private static boolean fits(int width, int height) {
+        return 2L * width * height <= MAX_BYTES;
+    }
+
+    private static short level(double t, double strength, double exponent) {
+        double v = 1 - strength * Math.pow(t, exponent);
+        return (short) (Math.max(0, Math.min(1, v)) * 256);
+    }
+
+    private static Mask get(List<Object> key, Supplier<Mask> builder) {
+        CompletableFuture<Mask> future;
+        boolean build = false;
+        synchronized (CACHE) {
+            future = CACHE.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                CACHE.put(key, future);
+                build = true;
+            }
+        }
+        if (build) {
+            try {
+                Mask mask = builder.get();
+                future.complete(mask);
+                synchronized (CACHE) {
+                    cachedBytes += mask.bytes();
+                    evict(key);
+                }
+            } catch (RuntimeException | Error e) {
+                synchronized (CACHE) {
+                    CACHE.remove(key);
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return future.join();
+    }
+
+    /** Drops least recently used masks (never the one just built) until the budget fits. */
+    private static void evict(List<Object> keep) {
+        var it = CACHE.entrySet().iterator();
+        while (cachedBytes > MAX_BYTES && it.hasNext()) {
+            var e = it.next();
+            if (e.getKey().equals(keep) || !e.getValue().isDone()) continue;
+            cachedBytes -= e.getValue().join().bytes();
+            it.remove();
+        }
+    }
+
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.entrySet().removeIf(e -> e.getValue().isDone());
+            cachedBytes = 0;
+        }
+    }
+}
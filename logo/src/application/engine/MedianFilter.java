@@ -0,0 +1,165 @@
+package application.engine;
+
+import java.util.Arrays;
+
+/**
+ * Median and percentile filters over a (2r+1) x (2r+1) window whose cost per pixel does not
+ * depend on r (Perreault and Hebert, "Median Filtering in Constant Time", 2007).
+ * <p>
+ * Each tile keeps one 256-bin histogram per column and channel, covering the window's rows;
+ * moving down a row adds one pixel to and removes one pixel from every column histogram.
+ * Along a row the window histogram gains the column entering on the right and loses the one
+ * leaving on the left. Histograms are two-level (16 coarse bins of 16 fine bins): the coarse
+ * level is kept current at every step, and a fine segment is only brought up to date when the
+ * rank search lands in it, which on natural images is a handful of segments per row.
+ * <p>
+ * Edges repeat the border pixel, so every window holds exactly (2r+1)^2 samples. Each channel
+ * is filtered independently; alpha is copied from the centre pixel.
+ */
+public final class MedianFilter {
+
+    /** Output columns per pass; bounds the column histograms to a few hundred KB per tile. */
+    private static final int STRIP = 256;
+    private static final int BINS = 256, COARSE = 16;
+    private static final int[] SHIFTS = {16, 8, 0};
+
+    private MedianFilter() { }
+
+    public static PixelKernel median(int radius) {
+        return percentile(radius, 0.5);
+    }
+
+    /**
+     * Per-channel percentile over the window: 0 is a minimum (erode), 0.5 the median, 1 a maximum (dilate).
+     */
+    public static PixelKernel percentile(int radius, double fraction) {
+        int r = Math.max(0, radius);
+        if (r > Short.MAX_VALUE / 2)
+            throw new IllegalArgumentException("Radius too large: " + radius);
+        long samples = (2L * r + 1) * (2L * r + 1);
+        int rank = (int) Math.round(Math.max(0, Math.min(1, fraction)) * (samples - 1));
+        return PixelKernel.spatial(r, 1, (src, dst, x0, y0, x1, y1) -> {
+            for (int sx = x0; sx < x1; sx += STRIP)
+                new Strip(src, dst, sx, Math.min(x1, sx + STRIP), r).run(y0, y1, rank);
+        });
+    }
+
+    /** Histogram state for one run of output columns. */
+    private static final class Strip {
+        private final int[] in, out;
+        private final int w, h, sx, outCols, cols, r;
+        private final int[] xs;
+        // Column histograms: channel c, column j at (c * cols + j) * BINS (fine) or * COARSE (coarse)
+        private final short[] colFine, colCoarse;
+        // Window histogram per channel, and per coarse bin the next column its fine segment still lacks
+        private final int[] fine = new int[3 * BINS], coarse = new int[3 * COARSE], next = new int[3 * COARSE];
+
+        Strip(ArgbImage src, ArgbImage dst, int sx, int sx1, int r) {
+            this.in = src.pixels();
+            this.out = dst.pixels();
+            this.w = src.getWidth();
+            this.h = src.getHeight();
+            this.sx = sx;
+            this.r = r;
+            this.outCols = sx1 - sx;
+            this.cols = outCols + 2 * r;
+            this.xs = new int[cols];
+            for (int j = 0; j < cols; j++) xs[j] = Math.max(0, Math.min(w - 1, sx - r + j));
+            this.colFine = new short[3 * cols * BINS];
+            this.colCoarse = new short[3 * cols * COARSE];
+        }
+
+        void run(int y0, int y1, int rank) {
+            for (int dy = -r; dy <= r; dy++) addRow(clampY(y0 + dy), 1);
+            int span = 2 * r + 1;
+            for (int y = y0; y < y1; y++) {
+                if (y > y0) {
+                    int leaving = clampY(y - r - 1), entering = clampY(y + r);
+                    if (leaving != entering) {
+                        addRow(leaving, -1);
+                        addRow(entering, 1);
+                    }
+                }
+                Arrays.fill(fine, 0);
+                Arrays.fill(coarse, 0);
+                Arrays.fill(next, 0);
+                for (int j = 0; j < span; j++) slideCoarse(j, -1);
+                int o = y * w + sx;
+                for (int lx = 0; lx < outCols; lx++, o++) {
+                    if (lx > 0) slideCoarse(lx + span - 1, lx - 1);
+                    int p = in[o] & 0xFF000000;
+                    for (int c = 0; c < 3; c++) p |= select(c, lx, rank) << SHIFTS[c];
+                    out[o] = p;
+                }
+            }
+        }
+
+        private int clampY(int y) {
+            return y < 0 ? 0 : (y >= h ? h - 1 : y);
+        }
+
+        private void addRow(int y, int d) {
+            int base = y * w;
+            for (int j = 0; j < cols; j++) {
+                int p = in[base + xs[j]];
+                for (int c = 0; c < 3; c++) {
+                    int v = (p >> SHIFTS[c]) & 0xFF, col = c * cols + j;
+                    // Counts stay within 2r+1, which fits a short (see percentile)
+                    int fi = col * BINS + v, ci = col * COARSE + (v >> 4);
+                    colFine[fi] = (short) (colFine[fi] + d);
+                    colCoarse[ci] = (short) (colCoarse[ci] + d);
+                }
+            }
+        }
+
+        /** Adds column {@code entering} to the coarse window histograms and removes {@code leaving} (if >= 0). */
+        private void slideCoarse(int entering, int leaving) {
+            for (int c = 0; c < 3; c++) {
+                int add = (c * cols + entering) * COARSE, to = c * COARSE;
+                if (leaving < 0) {
+                    for (int k = 0; k < COARSE; k++) coarse[to + k] += colCoarse[add + k];
+                } else {
+                    int sub = (c * cols + leaving) * COARSE;
+                    for (int k = 0; k < COARSE; k++) coarse[to + k] += colCoarse[add + k] - colCoarse[sub + k];
+                }
+            }
+        }
+
+        /** Value of the given rank in channel c's window ending at column lx + 2r. */
+        private int select(int c, int lx, int rank) {
+            int k = 0, seen = 0, cBase = c * COARSE;
+            while (seen + coarse[cBase + k] <= rank) seen += coarse[cBase + k++];
+            int seg = c * BINS + k * COARSE;
+            refreshFine(c, k, lx, seg);
+            int v = 0;
+            while (seen + fine[seg + v] <= rank) seen += fine[seg + v++];
+            return k * COARSE + v;
+        }
+
+        /** Brings fine segment k of channel c up to the window of columns [lx, lx + 2r]. */
+        private void refreshFine(int c, int k, int lx, int seg) {
+            int span = 2 * r + 1, last = lx + span - 1, slot = c * COARSE + k;
+            int from = next[slot];
+            if (from > last) return;
+            if (from < lx) {
+                // Segment is older than a whole window: rebuild it from the window's columns
+                Arrays.fill(fine, seg, seg + COARSE, 0);
+                for (int j = lx; j <= last; j++) {
+                    int add = (c * cols + j) * BINS + k * COARSE;
+                    for (int v = 0; v < COARSE; v++) fine[seg + v] += colFine[add + v];
+                }
+            } else {
+                for (int j = from; j <= last; j++) {
+                    int add = (c * cols + j) * BINS + k * COARSE;
+                    if (j < span) {
+                        for (int v = 0; v < COARSE; v++) fine[seg + v] += colFine[add + v];
+                    } else {
+                        int sub = add - span * BINS;
+                        for (int v = 0; v < COARSE; v++) fine[seg + v] += colFine[add + v] - colFine[sub + v];
+                    }
+                }
+            }
+            next[slot] = last + 1;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package application.engine;
+
+/**
+ * Deterministic noise effects.
+ * Every pixel's random numbers come from a counter-based hash of (seed, pixel index in the full image),
+ * so there is no shared generator to contend on and tiles can run on any number of threads. A pixel's
+ * noise depends only on the seed and its position in the full image (windows add their origin), never
+ * on which tile or thread renders it, which is what lets a seeded render serve as a golden image.
+ */
+public final class Noise {
+
+    public enum Type {
+        /** The same uniform offset on all three channels (the classic "Noise" effect). */
+        UNIFORM,
+        /** Independent Gaussian offsets per channel (color noise). */
+        GAUSSIAN,
+        /** Monochrome Gaussian grain, strongest in the midtones and fading out in shadows and highlights. */
+        FILM_GRAIN
+    }
+
+    /** Seed used by the editor's effects, so repeated renders match. */
+    public static final long DEFAULT_SEED = 0x9E3779B97F4A7C15L;
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    /** Standard deviation of the Irwin-Hall sum of four 16-bit uniforms: 65536 * sqrt(4 / 12). */
+    private static final double SUM_SIGMA = 65536 * Math.sqrt(4 / 12.0);
+
+    private Noise() { }
+
+    /**
+     * @param intensity maximum offset (uniform) or standard deviation (Gaussian, grain) as a fraction of full scale
+     */
+    public static PixelKernel kernel(Type type, double intensity, long seed) {
+        int amplitude = (int) Math.round(Math.max(0, intensity) * 255);
+        // Gaussian: offset = (sum - mean) * scale, in 16-bit fixed point
+        long scale = Math.round(intensity * 255 / SUM_SIGMA * 65536);
+        return switch (type) {
+            case UNIFORM -> (src, dst, x0, y0, x1, y1) -> {
+                int[] in = src.pixels(), out = dst.pixels();
+                int w = src.getWidth();
+                long span = 2L * amplitude + 1;
+                for (int y = y0; y < y1; y++) {
+                    long shift = fullIndexShift(src, y);
+                    for (int i = y * w + x0, end = y * w + x1; i < end; i++) {
+                        int n = (int) (((hash(seed, i + shift) >>> 32) * span) >>> 32) - amplitude;
+                        out[i] = offset(in[i], n, n, n);
+                    }
+                }
+            };
+            case GAUSSIAN -> (src, dst, x0, y0, x1, y1) -> {
+                int[] in = src.pixels(), out = dst.pixels();
+                int w = src.getWidth();
+                for (int y = y0; y < y1; y++) {
+                    long shift = fullIndexShift(src, y);
+                    for (int i = y * w + x0, end = y * w + x1; i < end; i++) {
+                        long c = 3 * (i + shift);
+                        out[i] = offset(in[i], gaussian(seed, c, scale), gaussian(seed, c + 1, scale), gaussian(seed, c + 2, scale));
+                    }
+                }
+            };
+            case FILM_GRAIN -> (src, dst, x0, y0, x1, y1) -> {
+                int[] in = src.pixels(), out = dst.pixels();
+                int w = src.getWidth();
+                for (int y = y0; y < y1; y++) {
+                    long shift = fullIndexShift(src, y);
+                    for (int i = y * w + x0, end = y * w + x1; i < end; i++) {
+                        int p = in[i];
+                        int luma = (77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF)) >> 8;
+                        // 4 * l * (1 - l) in 8-bit fixed point: 256 at mid grey, 0 at black and white
+                        int weight = (4 * luma * (255 - luma)) / 255;
+                        int n = (gaussian(seed, i + shift, scale) * weight + 128) >> 8;
+                        out[i] = offset(p, n, n, n);
+                    }
+                }
+            };
+        };
+    }
+
+    /** What to add to a buffer index on row y to get the pixel's index in the full image. */
+    private static long fullIndexShift(ArgbImage src, int y) {
+        return (long) (y + src.originY()) * src.fullWidth() + src.originX() - (long) y * src.getWidth();
+    }
+
+    /** SplitMix64 finaliser over the counter: a well-mixed 64-bit value per (seed, index). */
+    static long hash(long seed, long index) {
+        long z = seed + (index + 1) * GOLDEN;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Approximately normal offset from one hash: the four 16-bit parts are summed (Irwin-Hall). */
+    private static int gaussian(long seed, long counter, long scale) {
+        long h = hash(seed, counter);
+        long sum = (h & 0xFFFF) + ((h >>> 16) & 0xFFFF) + ((h >>> 32) & 0xFFFF) + (h >>> 48);
+        return (int) (((sum - 2 * 65535) * scale + 0x8000) >> 16);
+    }
+
+    private static int offset(int p, int dr, int dg, int db) {
+        return (p & 0xFF000000) | (Argb.clamp(((p >> 16) & 0xFF) + dr) << 16)
+                | (Argb.clamp(((p >> 8) & 0xFF) + dg) << 8) | Argb.clamp((p & 0xFF) + db);
+    }
+}
@@ -0,0 +1,222 @@
+package application.engine;
+
+import javafx.scene.image.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link PixelKernel}s over whole images.
+ * The source is read once into an int buffer, the kernel runs allocation-free
+ * on tiles spread over a fork/join pool, and the result is written back with one setPixels call.
+ */
+public final class PixelEngine {
+
+    /** Tiles below this many pixels are not split further. */
+    private static final int GRAIN = 64 * 1024;
+    private static final int MIN_TILE_EDGE = 32;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("pixel-engine-" + t.getPoolIndex());
+                t.setDaemon(true);
+                return t;
+            },
+            null, false);
+
+    private PixelEngine() { }
+
+    public static ForkJoinPool pool() { return POOL; }
+
+    /**
+     * Applies a kernel to a JavaFX image and returns the filtered copy.
+     */
+    public static Image apply(Image img, PixelKernel kernel) {
+        return apply(img, kernel, RenderMonitor.NONE);
+    }
+
+    /**
+     * Same as {@link #apply(Image, PixelKernel)} but reports progress and honours cancellation.
+     * @throws CancellationException if the monitor cancelled the render
+     */
+    public static Image apply(Image img, PixelKernel kernel, RenderMonitor monitor) {
+        return run(ArgbImage.of(img), kernel, monitor).toImage();
+    }
+
+    /**
+     * Applies a kernel to an ARGB buffer, returning a new buffer of the same size.
+     */
+    public static ArgbImage run(ArgbImage src, PixelKernel kernel) {
+        return run(src, kernel, RenderMonitor.NONE);
+    }
+
+    public static ArgbImage run(ArgbImage src, PixelKernel kernel, RenderMonitor monitor) {
+        ArgbImage dst = new ArgbImage(src.getWidth(), src.getHeight());
+        render(src, dst, kernel, 0, 0, src.getWidth(), src.getHeight(), monitor);
+        return dst;
+    }
+
+    /**
+     * Renders one region of {@code dst} in parallel, blocking until every tile is done.
+     */
+    public static void render(ArgbImage src, ArgbImage dst, PixelKernel kernel, int x0, int y0, int x1, int y1) {
+        render(src, dst, kernel, x0, y0, x1, y1, RenderMonitor.NONE);
+    }
+
+    /**
+     * Renders one region of {@code dst} in parallel, reporting progress per finished tile.
+     * @throws CancellationException if the monitor cancelled the render
+     */
+    public static void render(ArgbImage src, ArgbImage dst, PixelKernel kernel,
+                              int x0, int y0, int x1, int y1, RenderMonitor monitor) {
+        if (x1 <= x0 || y1 <= y0) return;
+        Progress progress = new Progress(monitor, (long) (x1 - x0) * (y1 - y0));
+        TileTask task = new TileTask(src, dst, kernel, progress, x0, y0, x1, y1);
+        if (inEnginePool()) task.invoke();
+        else POOL.invoke(task);
+        if (monitor.isCancelled()) throw new CancellationException("Render cancelled");
+    }
+
+    /**
+     * Renders a list of regions (e.g. tiles) in the given order of priority: regions are
+     * dispatched in waves of one per worker, so the first ones finish first.
+     * @throws CancellationException if the monitor cancelled the render
+     */
+    public static void render(ArgbImage src, ArgbImage dst, PixelKernel kernel, List<int[]> regions, RenderMonitor monitor) {
+        long total = 0;
+        for (int[] r : regions) total += (long) (r[2] - r[0]) * (r[3] - r[1]);
+        if (total == 0) return;
+        Progress progress = new Progress(monitor, total);
+        int wave = POOL.getParallelism();
+        for (int from = 0; from < regions.size() && !monitor.isCancelled(); from += wave) {
+            List<TileTask> tasks = new ArrayList<>();
+            for (int[] r : regions.subList(from, Math.min(regions.size(), from + wave)))
+                if (r[2] > r[0] && r[3] > r[1])
+                    tasks.add(new TileTask(src, dst, kernel, progress, r[0], r[1], r[2], r[3]));
+            invokeWave(tasks);
+        }
+        if (monitor.isCancelled()) throw new CancellationException("Render cancelled");
+    }
+
+    /** Work on one region {x0, y0, x1, y1}, run on a pool thread. */
+    @FunctionalInterface
+    public interface RegionTask {
+        void run(int[] region);
+    }
+
+    /**
+     * Runs a task per region in the given order of priority, dispatched in waves of one per
+     * worker so the first ones finish first; progress is reported per finished region.
+     * Used when each region has to be read from and written back to a {@link TiledImageStore}.
+     * @throws CancellationException if the monitor cancelled the work
+     */
+    public static void forEachRegion(List<int[]> regions, RenderMonitor monitor, RegionTask body) {
+        long total = 0;
+        for (int[] r : regions) total += (long) (r[2] - r[0]) * (r[3] - r[1]);
+        if (total == 0) return;
+        Progress progress = new Progress(monitor, total);
+        int wave = POOL.getParallelism();
+        for (int from = 0; from < regions.size() && !monitor.isCancelled(); from += wave) {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int[] r : regions.subList(from, Math.min(regions.size(), from + wave)))
+                if (r[2] > r[0] && r[3] > r[1])
+                    tasks.add(new RecursiveAction() {
+                        @Override protected void compute() {
+                            if (monitor.isCancelled()) return;
+                            body.run(r);
+                            progress.add((long) (r[2] - r[0]) * (r[3] - r[1]));
+                        }
+                    });
+            invokeWave(tasks);
+        }
+        if (monitor.isCancelled()) throw new CancellationException("Render cancelled");
+    }
+
+    private static void invokeWave(List<? extends RecursiveAction> tasks) {
+        RecursiveAction batch = new RecursiveAction() {
+            @Override protected void compute() { invokeAll(tasks); }
+        };
+        if (inEnginePool()) batch.invoke();
+        else POOL.invoke(batch);
+    }
+
+    private static boolean inEnginePool() {
+        return Thread.currentThread() instanceof ForkJoinWorkerThread w && w.getPool() == POOL;
+    }
+
+    /**
+     * Recursively halves a region into tiles. Row bands are preferred because
+     * they keep full scanlines contiguous; columns are split only for very short regions.
+     */
+    @SuppressWarnings("serial")
+    private static final class TileTask extends RecursiveAction {
+        private final ArgbImage src, dst;
+        private final PixelKernel kernel;
+        private final Progress progress;
+        private final int x0, y0, x1, y1;
+
+        TileTask(ArgbImage src, ArgbImage dst, PixelKernel kernel, Progress progress, int x0, int y0, int x1, int y1) {
+            this.src = src; this.dst = dst; this.kernel = kernel; this.progress = progress;
+            this.x0 = x0; this.y0 = y0; this.x1 = x1; this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            if (progress.monitor.isCancelled()) return;
+            int w = x1 - x0, h = y1 - y0;
+            // Keep tiles at least 4 halos tall/wide so re-read neighbourhoods stay cheap
+            int minEdge = Math.max(MIN_TILE_EDGE, 4 * kernel.halo());
+            if ((long) w * h > GRAIN) {
+                if (h >= 2 * minEdge) {
+                    int mid = split(y0, y1);
+                    if (mid > y0 && mid < y1) {
+                        invokeAll(new TileTask(src, dst, kernel, progress, x0, y0, x1, mid),
+                                  new TileTask(src, dst, kernel, progress, x0, mid, x1, y1));
+                        return;
+                    }
+                } else if (w >= 2 * minEdge) {
+                    int mid = split(x0, x1);
+                    if (mid > x0 && mid < x1) {
+                        invokeAll(new TileTask(src, dst, kernel, progress, x0, y0, mid, y1),
+                                  new TileTask(src, dst, kernel, progress, mid, y0, x1, y1));
+                        return;
+                    }
+                }
+            }
+            kernel.apply(src, dst, x0, y0, x1, y1);
+            progress.add((long) w * h);
+        }
+
+        private int split(int from, int to) {
+            int align = kernel.alignment();
+            int mid = (from + to) >>> 1;
+            if (align <= 1) return mid;
+            mid -= Math.floorMod(mid, align);
+            return mid > from ? mid : mid + align;
+        }
+    }
+
+    /** Shared per-render counter so tiles can report progress without locking. */
+    private static final class Progress {
+        final RenderMonitor monitor;
+        final long total;
+        final AtomicLong done = new AtomicLong();
+
+        Progress(RenderMonitor monitor, long total) {
+            this.monitor = monitor;
+            this.total = total;
+        }
+
+        void add(long pixels) {
+            if (monitor != RenderMonitor.NONE)
+                monitor.progress(done.addAndGet(pixels), total);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package application.engine;
+
+/**
+ * A single image effect expressed over packed ARGB buffers.
+ * Implementations write every pixel of the given region of {@code dst};
+ * {@code src} is read-only and may be sampled anywhere (neighbourhood effects).
+ * Regions may be rendered concurrently, so apply() must not keep shared mutable state.
+ */
+@FunctionalInterface
+public interface PixelKernel {
+
+    /**
+     * Renders the half-open region [x0, x1) x [y0, y1) of the output.
+     */
+    void apply(ArgbImage src, ArgbImage dst, int x0, int y0, int x1, int y1);
+
+    /**
+     * How many pixels outside its region the kernel reads (0 for point effects).
+     * The executor keeps tiles large enough that this halo stays a small overhead.
+     */
+    default int halo() { return 0; }
+
+    /**
+     * Tile edges are placed on multiples of this value (e.g. pixelate blocks).
+     */
+    default int alignment() { return 1; }
+
+    /**
+     * The same effect blended with its input: 0 leaves the image unchanged, 1 (or more) is the full effect.
+     * Used for the intensity of edit stack nodes.
+     */
+    default PixelKernel withStrength(double strength) {
+        if (strength >= 1) return this;
+        int t = (int) Math.round(Math.max(0, strength) * 256);
+        PixelKernel full = this;
+        return spatial(halo(), alignment(), (src, dst, x0, y0, x1, y1) -> {
+            full.apply(src, dst, x0, y0, x1, y1);
+            int[] in = src.pixels(), out = dst.pixels();
+            int w = src.getWidth();
+            for (int y = y0; y < y1; y++)
+                for (int i = y * w + x0, end = y * w + x1; i < end; i++)
+                    out[i] = Argb.lerp(in[i], out[i], t);
+        });
+    }
+
+    /**
+     * Wraps a kernel body with its neighbourhood requirements.
+     */
+    static PixelKernel spatial(int halo, int alignment, PixelKernel body) {
+        return new PixelKernel() {
+            @Override
+            public void apply(ArgbImage src, ArgbImage dst, int x0, int y0, int x1, int y1) {
+                body.apply(src, dst, x0, y0, x1, y1);
+            }
+            @Override public int halo() { return halo; }
+            @Override public int alignment() { return alignment; }
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package application.engine;
+
+/**
+ * A per-pixel color transform: the output pixel depends only on the input pixel.
+ * Point ops can be chained by {@link PointPipeline} so a run of them costs a single pass.
+ */
+@FunctionalInterface
+public interface PointOp {
+
+    /**
+     * Maps one packed ARGB pixel; alpha should be passed through unchanged.
+     */
+    int apply(int argb);
+}
@@ -0,0 +1,117 @@
+package application.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fuses a run of {@link PointOp}s into one kernel that makes a single pass
+ * over the image and writes a single output buffer.
+ * Adjacent curves are composed into one curve, which gives exactly the result
+ * of applying them one after another. Adjacent matrices are multiplied together
+ * whenever the first one cannot clip; that skips the rounding to 8 bits between
+ * them, so a channel can come out one level away from the stage-by-stage result.
+ */
+public final class PointPipeline implements PixelKernel {
+
+    private final PointOp[] stages;
+
+    private PointPipeline(List<PointOp> ops) {
+        List<PointOp> folded = new ArrayList<>();
+        for (PointOp op : ops) {
+            PointOp last = folded.isEmpty() ? null : folded.get(folded.size() - 1);
+            if (last instanceof ChannelCurves c && op instanceof ChannelCurves n) {
+                folded.set(folded.size() - 1, c.then(n));
+            } else if (last instanceof ColorMatrix m && op instanceof ColorMatrix n && m.isRangePreserving()) {
+                folded.set(folded.size() - 1, m.then(n));
+            } else if (op instanceof PointPipeline.Fused f) {
+                for (PointOp inner : f.pipeline.stages) folded.add(inner);
+            } else {
+                folded.add(op);
+            }
+        }
+        this.stages = folded.toArray(new PointOp[0]);
+    }
+
+    public static PointPipeline of(PointOp... ops) {
+        List<PointOp> list = new ArrayList<>();
+        Collections.addAll(list, ops);
+        return new PointPipeline(list);
+    }
+
+    public static PointPipeline of(List<? extends PointOp> ops) {
+        return new PointPipeline(new ArrayList<>(ops));
+    }
+
+    /**
+     * Returns a pipeline running this one followed by {@code next}, re-folding across the seam.
+     */
+    public PointPipeline then(PointPipeline next) {
+        List<PointOp> ops = new ArrayList<>();
+        Collections.addAll(ops, stages);
+        Collections.addAll(ops, next.stages);
+        return new PointPipeline(ops);
+    }
+
+    /** Number of passes-worth of work left after folding (for diagnostics). */
+    public int stageCount() {
+        return stages.length;
+    }
+
+    /**
+     * Blends the pipeline's result with its input; a single curve stage stays a (blended) curve
+     * so it keeps fusing with its neighbours.
+     */
+    @Override
+    public PointPipeline withStrength(double strength) {
+        if (strength >= 1) return this;
+        int t = (int) Math.round(Math.max(0, strength) * 256);
+        if (stages.length == 1 && stages[0] instanceof ChannelCurves c) return of(c.mix(t));
+        PointOp full = asOp();
+        return of((PointOp) p -> Argb.lerp(p, full.apply(p), t));
+    }
+
+    /** The whole pipeline as a single op, e.g. to nest it in another pipeline. */
+    public PointOp asOp() {
+        return new Fused(this);
+    }
+
+    @Override
+    public void apply(ArgbImage src, ArgbImage dst, int x0, int y0, int x1, int y1) {
+        int[] in = src.pixels(), out = dst.pixels();
+        int w = src.getWidth();
+        PointOp[] ops = stages;
+        if (ops.length == 1 && ops[0] instanceof ChannelCurves lut) {
+            for (int y = y0; y < y1; y++)
+                lut.applyRange(in, out, y * w + x0, y * w + x1);
+            return;
+        }
+        SimdBackend simd = Simd.backend();
+        if (ops.length == 1 && simd != null && ops[0] instanceof ColorMatrix m) {
+            for (int y = y0; y < y1; y++)
+                simd.colorMatrix(in, out, y * w + x0, y * w + x1, m.coefficients());
+            return;
+        }
+        if (ops.length == 1) {
+            PointOp op = ops[0];
+            for (int y = y0; y < y1; y++)
+                for (int i = y * w + x0, end = y * w + x1; i < end; i++)
+                    out[i] = op.apply(in[i]);
+            return;
+        }
+        for (int y = y0; y < y1; y++)
+            for (int i = y * w + x0, end = y * w + x1; i < end; i++) {
+                int p = in[i];
+                for (PointOp op : ops) p = op.apply(p);
+                out[i] = p;
+            }
+    }
+
+    private record Fused(PointPipeline pipeline) implements PointOp {
+        @Override
+        public int apply(int argb) {
+            for (PointOp op : pipeline.stages) argb = op.apply(argb);
+            return argb;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package application.engine;
+
+/**
+ * Progress and cancellation hook for long-running renders.
+ * Implementations are called from pool threads and must be thread-safe.
+ */
+public interface RenderMonitor {
+
+    /** Monitor that never cancels and ignores progress. */
+    RenderMonitor NONE = new RenderMonitor() {
+        @Override public boolean isCancelled() { return false; }
+        @Override public void progress(long done, long total) { }
+    };
+
+    /** Checked between tiles; once true, remaining tiles are skipped. */
+    boolean isCancelled();
+
+    /** Reports how many output pixels are finished so far. */
+    void progress(long done, long total);
+}
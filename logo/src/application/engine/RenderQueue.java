@@ -0,0 +1,166 @@
+package application.engine;
+
+import javafx.concurrent.Task;
+import javafx.scene.control.ProgressBar;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs filter jobs off the JavaFX Application Thread, one at a time.
+ * Submitting a new job cancels the one still in flight, and a result is only
+ * handed to its commit callback (on the FX thread) if nothing superseded it.
+ * Edits ({@link #submitEdit}) are the exception: views and previews do not cancel them,
+ * so a destructive edit the user asked for is never dropped.
+ * Used by PhotoEditorController and ImageController.
+ */
+public class RenderQueue {
+
+    /**
+     * A unit of background work; long renders should pass the monitor down to the engine.
+     * @param <T> what the job produces for its commit callback, e.g. an Image to show
+     */
+    @FunctionalInterface
+    public interface Job<T> {
+        T render(RenderMonitor monitor) throws Exception;
+    }
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "render-queue");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ProgressBar progressBar;
+    private Task<?> current;
+    private Task<?> edit;
+
+    /**
+     * @param progressBar bar to show while a job runs (may be null)
+     */
+    public RenderQueue(ProgressBar progressBar) {
+        this.progressBar = progressBar;
+        hideProgress();
+    }
+
+    /**
+     * Schedules a job, cancelling any job that has not committed yet.
+     * Must be called on the FX thread.
+     * @param job    work to run in the background
+     * @param commit receives the result on the FX thread, unless it is null
+     */
+    public <T> void submit(Job<T> job, Consumer<? super T> commit) {
+        cancel();
+        Task<T> task = task(job);
+        task.setOnSucceeded(e -> {
+            if (current != task) return;
+            current = null;
+            showProgress(edit);
+            if (task.getValue() != null) commit.accept(task.getValue());
+        });
+        task.setOnFailed(e -> {
+            if (current == task) {
+                current = null;
+                showProgress(edit);
+            }
+            System.err.println("[RenderQueue] Filter failed: " + task.getException());
+        });
+        current = task;
+        showProgress(task);
+        EXECUTOR.submit(task);
+    }
+
+    /**
+     * Schedules an edit, which {@link #submit} and {@link #cancel} leave alone; only
+     * {@link #cancelAll} drops it. Callers wait for the commit before submitting the next edit,
+     * so each edit can start from the image the one before produced.
+     * Must be called on the FX thread.
+     * @param commit receives the result on the FX thread
+     * @param failed runs on the FX thread if the job fails or returns null
+     */
+    public <T> void submitEdit(Job<T> job, Consumer<? super T> commit, Runnable failed) {
+        Task<T> task = task(job);
+        task.setOnSucceeded(e -> {
+            if (edit != task) return;
+            edit = null;
+            showProgress(current);
+            if (task.getValue() != null) commit.accept(task.getValue());
+            else failed.run();
+        });
+        task.setOnFailed(e -> {
+            System.err.println("[RenderQueue] Filter failed: " + task.getException());
+            if (edit != task) return;
+            edit = null;
+            showProgress(current);
+            failed.run();
+        });
+        edit = task;
+        if (current == null) showProgress(task);
+        EXECUTOR.submit(task);
+    }
+
+    private static <T> Task<T> task(Job<T> job) {
+        return new Task<>() {
+            @Override
+            protected T call() throws Exception {
+                Task<T> self = this;
+                return job.render(new RenderMonitor() {
+                    @Override public boolean isCancelled() { return self.isCancelled(); }
+                    @Override public void progress(long done, long total) { updateProgress(done, total); }
+                });
+            }
+        };
+    }
+
+    /**
+     * Cancels the in-flight job, if any; its result will be discarded. A running edit carries on.
+     */
+    public void cancel() {
+        if (current != null) {
+            // Not interrupted: jobs poll their RenderMonitor, and an interrupt would close the
+            // FileChannels of the tile stores and the spilled history they are reading
+            current.cancel(false);
+            current = null;
+        }
+        showProgress(edit);
+    }
+
+    /** Cancels the in-flight job and the running edit, e.g. when another image is opened. */
+    public void cancelAll() {
+        cancel();
+        if (edit != null) {
+            edit.cancel(false);
+            edit = null;
+        }
+        hideProgress();
+    }
+
+    /**
+     * Runs {@code cleanup} on the queue's thread after the job in flight and every job queued
+     * before it, e.g. to close stores they may still be reading without blocking the FX thread.
+     */
+    public void runAfter(Runnable cleanup) {
+        EXECUTOR.execute(cleanup);
+    }
+
+    public boolean isBusy() {
+        return current != null || edit != null;
+    }
+
+    private void showProgress(Task<?> task) {
+        if (task == null) {
+            hideProgress();
+        } else if (progressBar != null) {
+            progressBar.progressProperty().bind(task.progressProperty());
+            progressBar.setVisible(true);
+        }
+    }
+
+    private void hideProgress() {
+        if (progressBar == null) return;
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        progressBar.setVisible(false);
+    }
+}
@@ -0,0 +1,272 @@
+package application.engine;
+
+import javafx.scene.image.Image;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * High-quality image resizing with separable filters.
+ * For each axis a weight table is computed once (every output column or row gets the first source
+ * index it reads and its normalised weights). Output rows are then split into bands on the
+ * {@link PixelEngine} pool; each band runs the horizontal pass over just the source rows it
+ * needs and the vertical pass over that small intermediate.
+ * When shrinking, the filter is stretched by the scale factor so it also acts as the low-pass.
+ * Colour is weighted by alpha (premultiplied) so transparent pixels do not darken edges;
+ * edges repeat the border pixel. Used for export sizes, slider display and thumbnails.
+ */
+public final class Resampler {
+
+    public enum Filter {
+        /** Windowed sinc, radius 3: sharpest, slight ringing on hard edges. */
+        LANCZOS3(3),
+        /** Catmull-Rom cubic, radius 2. */
+        BICUBIC(2),
+        /** Exact pixel-area average: best for large reductions such as thumbnails. */
+        AREA(0.5);
+
+        final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        double weight(double x) {
+            x = Math.abs(x);
+            return switch (this) {
+                case LANCZOS3 -> x < 1e-8 ? 1 : (x >= 3 ? 0 : sinc(x) * sinc(x / 3));
+                case BICUBIC -> x < 1 ? (1.5 * x - 2.5) * x * x + 1 : (x < 2 ? ((-0.5 * x + 2.5) * x - 4) * x + 2 : 0);
+                case AREA -> 0; // computed from overlaps in Weights
+            };
+        }
+
+        private static double sinc(double x) {
+            return Math.sin(Math.PI * x) / (Math.PI * x);
+        }
+    }
+
+    /**
+     * Source rows a band aims to cover. Neighbouring bands share (and both filter) up to one
+     * vertical filter span of rows, so bands are kept at least two spans tall.
+     */
+    private static final int BAND_SOURCE_ROWS = 64;
+
+    private Resampler() { }
+
+    /** Resizes a JavaFX image to exactly width x height. */
+    public static Image resize(Image img, int width, int height, Filter filter) {
+        return resize(ArgbImage.of(img), width, height, filter, RenderMonitor.NONE).toImage();
+    }
+
+    public static ArgbImage resize(ArgbImage src, int width, int height, Filter filter) {
+        return resize(src, width, height, filter, RenderMonitor.NONE);
+    }
+
+    /**
+     * Resizes to exactly width x height.
+     * @throws CancellationException if the monitor cancelled the resize
+     */
+    public static ArgbImage resize(ArgbImage src, int width, int height, Filter filter, RenderMonitor monitor) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        int sw = src.getWidth(), sh = src.getHeight();
+        if (width == sw && height == sh) return src.copy();
+        Weights wx = new Weights(sw, width, filter), wy = new Weights(sh, height, filter);
+
+        // Each band of output rows filters just the source rows it reads horizontally
+        // (premultiplied, 4 floats per pixel), then vertically into packed ARGB
+        ArgbImage dst = new ArgbImage(width, height);
+        run(height, band(sh, height, wy), monitor, (r0, r1) ->
+                filterBand(src.pixels(), 0, sw, wx, wy, dst.pixels(), 0, r0, r1));
+        return dst;
+    }
+
+    /**
+     * Resizes a store to exactly width x height into a new store (owned by the caller), reading
+     * and writing one band of rows at a time so neither image has to fit the heap.
+     * @throws CancellationException if the monitor cancelled the resize
+     */
+    public static TiledImageStore resize(TiledImageStore src, int width, int height, Filter filter, RenderMonitor monitor) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        int sw = src.getWidth(), sh = src.getHeight();
+        Weights wx = new Weights(sw, width, filter), wy = new Weights(sh, height, filter);
+        TiledImageStore dst = new TiledImageStore(width, height);
+        try {
+            run(height, band(sh, height, wy), monitor, (r0, r1) -> {
+                ArgbImage in = src.read(0, wy.clamp(wy.start[r0]), sw, wy.clamp(wy.start[r1 - 1] + wy.taps - 1) + 1);
+                ArgbImage out = ArgbImage.window(0, r0, width, r1, width, height);
+                filterBand(in.pixels(), in.originY(), sw, wx, wy, out.pixels(), r0, r0, r1);
+                dst.copyFrom(out, 0, r0, width, r1);
+            });
+        } catch (RuntimeException e) {
+            dst.close();
+            throw e;
+        }
+        return dst;
+    }
+
+    /** Output rows per band, so each band reads about {@link #BAND_SOURCE_ROWS} source rows. */
+    private static int band(int srcHeight, int height, Weights wy) {
+        double scale = Math.max(1, (double) srcHeight / height);
+        return Math.max(1, (int) Math.ceil(Math.max(BAND_SOURCE_ROWS, 2 * wy.taps) / scale));
+    }
+
+    /**
+     * Filters output rows [r0, r1) into {@code out}, which holds output rows from outFirstRow on,
+     * reading source rows held in {@code in} from row firstRow on.
+     */
+    private static void filterBand(int[] in, int firstRow, int sw, Weights wx, Weights wy,
+                                   int[] out, int outFirstRow, int r0, int r1) {
+        int width = wx.start.length;
+        int s0 = wy.start[r0], s1 = wy.start[r1 - 1] + wy.taps;
+        float[] mid = new float[(s1 - s0) * width * 4];
+        for (int j = s0; j < s1; j++) {
+            int row = (wy.clamp(j) - firstRow) * sw;
+            for (int x = 0, o = (j - s0) * width * 4; x < width; x++, o += 4) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int k = x * wx.taps, end = k + wx.taps; k < end; k++) {
+                    float wgt = wx.weight[k];
+                    int p = in[row + wx.index[k]];
+                    float pa = (p >>> 24) * wgt;
+                    a += pa;
+                    r += pa * ((p >> 16) & 0xFF);
+                    g += pa * ((p >> 8) & 0xFF);
+                    b += pa * (p & 0xFF);
+                }
+                mid[o] = a; mid[o + 1] = r; mid[o + 2] = g; mid[o + 3] = b;
+            }
+        }
+        for (int y = r0; y < r1; y++) {
+            for (int x = 0, o = (y - outFirstRow) * width; x < width; x++, o++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int t = 0, k = y * wy.taps, m = ((wy.start[y] - s0) * width + x) * 4; t < wy.taps; t++, k++, m += width * 4) {
+                    float wgt = wy.weight[k];
+                    a += wgt * mid[m];
+                    r += wgt * mid[m + 1];
+                    g += wgt * mid[m + 2];
+                    b += wgt * mid[m + 3];
+                }
+                if (a <= 0.5f) {
+                    out[o] = 0;
+                    continue;
+                }
+                float inv = 1 / a;
+                out[o] = (channel(a) << 24) | (channel(r * inv) << 16) | (channel(g * inv) << 8) | channel(b * inv);
+            }
+        }
+    }
+
+    /** Largest size with the same aspect ratio that fits maxWidth x maxHeight (never enlarges). */
+    public static int[] fitSize(int width, int height, int maxWidth, int maxHeight) {
+        double s = Math.min(1, Math.min((double) maxWidth / width, (double) maxHeight / height));
+        return new int[]{Math.max(1, (int) Math.round(width * s)), Math.max(1, (int) Math.round(height * s))};
+    }
+
+    /** Scales an image down to fit maxWidth x maxHeight (Lanczos-3), or returns it unchanged if it already fits. */
+    public static Image fit(Image img, int maxWidth, int maxHeight) {
+        int w = (int) img.getWidth(), h = (int) img.getHeight();
+        int[] size = fitSize(w, h, maxWidth, maxHeight);
+        if (size[0] == w && size[1] == h) return img;
+        return resize(img, size[0], size[1], Filter.LANCZOS3);
+    }
+
+    /** Small preview that fits maxWidth x maxHeight, area-averaged (no ringing, no aliasing). */
+    public static Image thumbnail(Image img, int maxWidth, int maxHeight) {
+        int[] size = fitSize((int) img.getWidth(), (int) img.getHeight(), maxWidth, maxHeight);
+        return resize(img, size[0], size[1], Filter.AREA);
+    }
+
+    private static int channel(float v) {
+        int i = (int) (v + 0.5f);
+        return i < 0 ? 0 : (i > 255 ? 255 : i);
+    }
+
+    /** A band of output rows handed to one worker. */
+    @FunctionalInterface
+    private interface Rows {
+        void run(int from, int to);
+    }
+
+    private static void run(int rows, int band, RenderMonitor monitor, Rows body) {
+        PixelEngine.pool().invoke(new BandTask(body, monitor, 0, rows, band));
+        if (monitor.isCancelled()) throw new CancellationException("Resize cancelled");
+    }
+
+    /** Halves a range of output rows until it is one band. */
+    @SuppressWarnings("serial")
+    private static final class BandTask extends RecursiveAction {
+        private final Rows body;
+        private final RenderMonitor monitor;
+        private final int from, to, band;
+
+        BandTask(Rows body, RenderMonitor monitor, int from, int to, int band) {
+            this.body = body;
+            this.monitor = monitor;
+            this.from = from;
+            this.to = to;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (monitor.isCancelled()) return;
+            if (to - from <= band) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BandTask(body, monitor, from, mid, band), new BandTask(body, monitor, mid, to, band));
+        }
+    }
+
+    /**
+     * Per output index: the first source index read and a fixed number of normalised weights
+     * (zero-padded) with their border-clamped source indices, so the inner loops have no
+     * per-pixel bookkeeping.
+     */
+    private static final class Weights {
+        final int taps, last;
+        final int[] start, index;
+        final float[] weight;
+
+        Weights(int srcSize, int dstSize, Filter filter) {
+            double scale = (double) srcSize / dstSize;
+            double stretch = Math.max(1, scale);
+            double support = filter == Filter.AREA ? 0.5 * scale + 1 : filter.support * stretch;
+            this.taps = (int) Math.ceil(2 * support) + 1;
+            this.last = srcSize - 1;
+            this.start = new int[dstSize];
+            this.weight = new float[dstSize * taps];
+            this.index = new int[dstSize * taps];
+            double[] tmp = new double[taps];
+            for (int i = 0; i < dstSize; i++) {
+                double centre = (i + 0.5) * scale;
+                int first = (int) Math.floor(centre - support);
+                start[i] = first;
+                double sum = 0;
+                for (int t = 0; t < taps; t++) {
+                    int j = first + t;
+                    double w;
+                    if (filter == Filter.AREA) {
+                        // Overlap of source pixel [j, j + 1) with the output footprint (at least one source pixel wide)
+                        double half = Math.max(0.5 * scale, 0.5);
+                        w = Math.max(0, Math.min(j + 1, centre + half) - Math.max(j, centre - half));
+                    } else {
+                        w = filter.weight((j + 0.5 - centre) / stretch);
+                    }
+                    tmp[t] = w;
+                    sum += w;
+                }
+                for (int t = 0; t < taps; t++) {
+                    weight[i * taps + t] = (float) (sum == 0 ? 0 : tmp[t] / sum);
+                    index[i * taps + t] = clamp(first + t);
+                }
+            }
+        }
+
+        int clamp(int j) {
+            return j < 0 ? 0 : (j > last ? last : j);
+        }
+    }
+}
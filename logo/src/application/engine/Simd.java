@@ -0,0 +1,51 @@
+package application.engine;
+
+/**
+ * Switch between scalar kernels and the Vector API backend.
+ * The backend is only loaded when the {@code jdk.incubator.vector} module is present
+ * (run with {@code --add-modules jdk.incubator.vector}); otherwise the engine stays scalar.
+ * The default comes from the {@code visionforge.simd} system property (on unless set to false),
+ * and can be flipped at runtime to compare throughput.
+ */
+public final class Simd {
+
+    private static final SimdBackend BACKEND = load();
+    private static volatile boolean enabled = BACKEND != null
+            && !"false".equalsIgnoreCase(System.getProperty("visionforge.simd"));
+
+    private Simd() { }
+
+    private static SimdBackend load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.out.println("[Simd] jdk.incubator.vector not available, using scalar kernels.");
+            return null;
+        }
+        try {
+            SimdBackend backend = (SimdBackend) Class.forName("application.engine.VectorBackend")
+                    .getDeclaredConstructor().newInstance();
+            System.out.println("[Simd] Vector API backend loaded (" + backend.lanes() + " int lanes).");
+            return backend;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("[Simd] Could not load Vector API backend: " + e);
+            return null;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return BACKEND != null;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turns the vector kernels on or off; ignored when the backend is unavailable. */
+    public static void setEnabled(boolean on) {
+        enabled = on && BACKEND != null;
+    }
+
+    /** The active backend, or null when kernels should run scalar. */
+    static SimdBackend backend() {
+        return enabled ? BACKEND : null;
+    }
+}
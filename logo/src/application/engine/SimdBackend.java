@@ -0,0 +1,28 @@
+package application.engine;
+
+/**
+ * Vectorised versions of the engine's hottest inner loops.
+ * Every method processes the half-open index range [from, to) of packed ARGB arrays
+ * and must produce exactly the same pixels as the scalar code it replaces.
+ */
+interface SimdBackend {
+
+    /** Lane count of the preferred int species, for logging. */
+    int lanes();
+
+    /** c' = min(255, (c * q + 128) >> 8) per channel; q are 8-bit fixed-point gains. */
+    void mulClamp(int[] in, int[] out, int from, int to, int rq, int gq, int bq);
+
+    /** 3x4 float color matrix with round-half-up and clamping (see {@link ColorMatrix}). */
+    void colorMatrix(int[] in, int[] out, int from, int to, float[] m);
+
+    /** Per-channel table lookup (see {@link ChannelCurves}). */
+    void lut(int[] in, int[] out, int from, int to, int[] r, int[] g, int[] b);
+
+    /**
+     * Interior run of a 3x3 convolution: every tap of every pixel in [from, to) is in bounds.
+     * @param w     image width (row stride)
+     * @param taps  nine weights, row-major, with {@code shift} fraction bits
+     */
+    void convolve3x3(int[] in, int[] out, int from, int to, int w, int[] taps, int shift);
+}
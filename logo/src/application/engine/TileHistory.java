@@ -0,0 +1,630 @@
+package application.engine;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Undo/redo history of a destructively edited image that stores each step as tiles.
+ * Every {@link State} is a grid of immutable {@value #TILE} px tiles; a new state made from an
+ * edit ({@link State#derive}) shares every tile whose pixels did not change with the state it was
+ * made from, so a step costs only the tiles the edit touched. Undo and redo swap the current
+ * state for another, and {@link State#writeChanges} updates a displayed image by writing only the
+ * tiles the two states do not share. Used by PhotoEditorContext; {@link EditLog} keeps its
+ * keyframes as states too.
+ * <p>
+ * Tiles in memory are kept within a byte budget: after every step, states are ranked by their
+ * distance from the current one (which always stays in memory) and the tiles of those that no
+ * longer fit are deflated into a scratch file in the background. States that fit again are paged
+ * back in the background too, so a step of undo into the spilled part normally finds its tiles
+ * loaded; a tile that is still on disk when it is read is loaded on the spot. Tiles dropped with
+ * their states leave dead space in the file, so once that outgrows both {@value #COMPACT_MIN_MB} MB
+ * and the tiles still in use, those are copied to a new file and the old one is deleted.
+ * Not thread-safe: call from one thread (the FX thread); states themselves can be read anywhere.
+ */
+public final class TileHistory implements AutoCloseable {
+
+    /** Tile edge; edge tiles are cropped to the image. */
+    static final int TILE = 64;
+
+    /** Budget when none is given: the visionforge.history.budget property in MB, or 256 MB. */
+    public static final long DEFAULT_BUDGET = defaultBudget();
+
+    /** Dead space the scratch file may hold before it is compacted, in MB. */
+    static final int COMPACT_MIN_MB = 64;
+
+    // Spilling and paging in run here, in order, so a tile is never read while it is written
+    private static final ExecutorService SPILL = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-spill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long budget;
+    private State current;
+    private final Deque<State> undoStack = new ArrayDeque<>();
+    private final Deque<State> redoStack = new ArrayDeque<>();
+    // Only touched on the SPILL thread
+    private SpillFile spillFile;
+
+    public TileHistory() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /** @param budget bytes of tiles to keep in memory; the current state is kept even if it is larger */
+    public TileHistory(long budget) {
+        this.budget = budget;
+    }
+
+    /** Current state, or null before the first {@link #reset}. */
+    public State current() {
+        return current;
+    }
+
+    /** Starts over from {@code base} with an empty history. */
+    public void reset(State base) {
+        current = base;
+        undoStack.clear();
+        redoStack.clear();
+        rebalance();
+    }
+
+    /** Makes {@code next} current as a new undo step and forgets the redo states. */
+    public void commit(State next) {
+        if (current != null) undoStack.push(current);
+        redoStack.clear();
+        current = next;
+        rebalance();
+    }
+
+    /** Replaces the current state without adding an undo step, e.g. while a slider is dragged. */
+    public void amend(State next) {
+        current = next;
+        rebalance();
+    }
+
+    /** Drops the current state and goes back one step without making it redoable; null if there is none. */
+    public State discard() {
+        if (undoStack.isEmpty()) return null;
+        current = undoStack.pop();
+        rebalance();
+        return current;
+    }
+
+    /** Steps back and returns the new current state, or null if there is nothing to undo. */
+    public State undo() {
+        if (undoStack.isEmpty()) return null;
+        redoStack.push(current);
+        current = undoStack.pop();
+        rebalance();
+        return current;
+    }
+
+    /** Steps forward and returns the new current state, or null if there is nothing to redo. */
+    public State redo() {
+        if (redoStack.isEmpty()) return null;
+        undoStack.push(current);
+        current = redoStack.pop();
+        rebalance();
+        return current;
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Forgets every state, including the current one, and deletes the scratch file.
+     * States taken from the history before must not be read afterwards.
+     */
+    public void clear() {
+        reset(null);
+        SPILL.execute(this::closeSpillFile);
+    }
+
+    /** Same as {@link #clear()}. */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /** Bytes of tiles the history holds in memory, counting each shared tile once. */
+    public long bytes() {
+        Set<Tile> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        long n = 0;
+        for (State s : byDistance())
+            for (Tile t : s.tiles)
+                if (seen.add(t) && t.isResident()) n += t.bytes();
+        return n;
+    }
+
+    /** Every state, nearest to the current one first: current, one undo, one redo, two undos... */
+    private List<State> byDistance() {
+        List<State> order = new ArrayList<>();
+        if (current != null) order.add(current);
+        Iterator<State> back = undoStack.iterator(), forward = redoStack.iterator();
+        while (back.hasNext() || forward.hasNext()) {
+            if (back.hasNext()) order.add(back.next());
+            if (forward.hasNext()) order.add(forward.next());
+        }
+        return order;
+    }
+
+    /**
+     * Keeps the states nearest the current one in memory, as many as the budget holds, and
+     * queues the tiles of the rest for spilling and those of the kept ones for paging in.
+     */
+    private void rebalance() {
+        Set<Tile> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Tile> spill = new ArrayList<>(), load = new ArrayList<>();
+        long used = 0;
+        boolean fits = true;
+        for (State s : byDistance()) {
+            List<Tile> added = new ArrayList<>();
+            long bytes = 0;
+            for (Tile t : s.tiles)
+                if (seen.add(t)) {
+                    added.add(t);
+                    bytes += t.bytes();
+                }
+            // Once one state does not fit, older ones are not kept either
+            fits &= s == current || used + bytes <= budget;
+            if (fits) used += bytes;
+            for (Tile t : added)
+                if (fits && !t.isResident()) load.add(t);
+                else if (!fits && t.isResident()) spill.add(t);
+        }
+        if (spill.isEmpty() && load.isEmpty()) return;
+        SPILL.execute(() -> {
+            for (Tile t : spill)
+                if (!t.spill(this::spillFile)) break;
+            for (Tile t : load) t.pixels();
+            compactSpillFile();
+        });
+    }
+
+    private void compactSpillFile() {
+        if (spillFile == null) return;
+        long dead = spillFile.deadBytes();
+        if (dead <= (long) COMPACT_MIN_MB << 20 || dead <= spillFile.liveBytes()) return;
+        try {
+            SpillFile next = new SpillFile();
+            spillFile.moveTo(next);
+            spillFile.close();
+            spillFile = next;
+        } catch (IOException e) {
+            System.err.println("[TileHistory] Could not compact history scratch file: " + e.getMessage());
+        }
+    }
+
+    private SpillFile spillFile() {
+        if (spillFile == null) {
+            try {
+                spillFile = new SpillFile();
+            } catch (IOException e) {
+                System.err.println("[TileHistory] Could not create history scratch file: " + e.getMessage());
+            }
+        }
+        return spillFile;
+    }
+
+    private void closeSpillFile() {
+        if (spillFile != null) spillFile.close();
+        spillFile = null;
+    }
+
+    private static long defaultBudget() {
+        String mb = System.getProperty("visionforge.history.budget");
+        if (mb != null) {
+            try {
+                return Long.parseLong(mb.trim()) << 20;
+            } catch (NumberFormatException e) {
+                System.err.println("[TileHistory] Ignoring visionforge.history.budget=" + mb);
+            }
+        }
+        return 256L << 20;
+    }
+
+    /** One version of the image: a grid of tiles that are never written after the state is made. */
+    public static final class State {
+        private final int width, height, cols, rows;
+        private final Tile[] tiles;
+
+        private State(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.cols = (width + TILE - 1) / TILE;
+            this.rows = (height + TILE - 1) / TILE;
+            this.tiles = new Tile[cols * rows];
+        }
+
+        /** State holding a copy of an image, sharing nothing. */
+        public static State of(ArgbImage img) {
+            return make(null, img);
+        }
+
+        /**
+         * State for an edited version of this one: tiles whose pixels are unchanged are shared,
+         * the rest are copied from {@code edited}. A different size shares nothing.
+         */
+        public State derive(ArgbImage edited) {
+            return make(this, edited);
+        }
+
+        private static State make(State base, ArgbImage img) {
+            int w = img.getWidth(), h = img.getHeight();
+            State s = new State(w, h);
+            boolean share = base != null && base.width == w && base.height == h;
+            int[] in = img.pixels();
+            // One region per row of tiles, spread over the pool
+            List<int[]> bands = new ArrayList<>();
+            for (int ty = 0; ty < s.rows; ty++) bands.add(new int[]{0, ty * TILE, w, Math.min(h, (ty + 1) * TILE)});
+            PixelEngine.forEachRegion(bands, RenderMonitor.NONE, r -> {
+                int ty = r[1] / TILE, th = r[3] - r[1];
+                for (int tx = 0; tx < s.cols; tx++) {
+                    int x0 = tx * TILE, tw = Math.min(w, x0 + TILE) - x0, t = ty * s.cols + tx;
+                    if (share && same(base.tiles[t].pixels(), tw, th, in, w, x0, r[1])) {
+                        s.tiles[t] = base.tiles[t];
+                        continue;
+                    }
+                    int[] tile = new int[tw * th];
+                    for (int y = 0; y < th; y++) System.arraycopy(in, (r[1] + y) * w + x0, tile, y * tw, tw);
+                    s.tiles[t] = new Tile(tile);
+                }
+            });
+            return s;
+        }
+
+        private static boolean same(int[] tile, int tw, int th, int[] in, int w, int x0, int y0) {
+            for (int y = 0; y < th; y++) {
+                int o = (y0 + y) * w + x0;
+                if (!Arrays.equals(tile, y * tw, y * tw + tw, in, o, o + tw)) return false;
+            }
+            return true;
+        }
+
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+
+        /** Number of tiles this state does not share with {@code other} (all of them if the sizes differ). */
+        public int changedTiles(State other) {
+            if (other == null || other.width != width || other.height != height) return tiles.length;
+            int n = 0;
+            for (int t = 0; t < tiles.length; t++)
+                if (tiles[t] != other.tiles[t]) n++;
+            return n;
+        }
+
+        /** True if every tile is in memory, so reading the state does not touch the disk. */
+        public boolean isLoaded() {
+            for (Tile t : tiles)
+                if (!t.isResident()) return false;
+            return true;
+        }
+
+        /** Completes (on the spill thread) once every tile is in memory. */
+        public CompletableFuture<State> load() {
+            if (isLoaded()) return CompletableFuture.completedFuture(this);
+            return CompletableFuture.supplyAsync(() -> {
+                for (Tile t : tiles) t.pixels();
+                return this;
+            }, SPILL);
+        }
+
+        /** Assembles the whole image into a new heap buffer, e.g. as the input of the next edit. */
+        public ArgbImage toArgbImage() {
+            ArgbImage out = new ArgbImage(width, height);
+            int[] px = out.pixels();
+            for (int ty = 0; ty < rows; ty++)
+                for (int tx = 0; tx < cols; tx++) {
+                    int x0 = tx * TILE, y0 = ty * TILE, tw = Math.min(width, x0 + TILE) - x0;
+                    int[] tile = tiles[ty * cols + tx].pixels();
+                    for (int y = 0, th = tile.length / tw; y < th; y++)
+                        System.arraycopy(tile, y * tw, px, (y0 + y) * width + x0, tw);
+                }
+            return out;
+        }
+
+        /** New image of this state, e.g. for display; keep it current with {@link #writeChanges}. */
+        public WritableImage toImage() {
+            WritableImage img = new WritableImage(width, height);
+            writeChanges(null, img.getPixelWriter());
+            return img;
+        }
+
+        /**
+         * Turns an image showing {@code shown} into one showing this state by writing only the
+         * tiles the two do not share (every tile if {@code shown} is null or another size).
+         * Call on the FX thread for a displayed image.
+         */
+        public void writeChanges(State shown, PixelWriter writer) {
+            boolean all = shown == null || shown.width != width || shown.height != height;
+            PixelFormat<IntBuffer> format = PixelFormat.getIntArgbInstance();
+            for (int ty = 0; ty < rows; ty++)
+                for (int tx = 0; tx < cols; tx++) {
+                    int t = ty * cols + tx;
+                    if (!all && tiles[t] == shown.tiles[t]) continue;
+                    int x0 = tx * TILE, y0 = ty * TILE, tw = Math.min(width, x0 + TILE) - x0;
+                    int[] tile = tiles[t].pixels();
+                    writer.setPixels(x0, y0, tw, tile.length / tw, format, tile, 0, tw);
+                }
+        }
+    }
+
+    /** Source of the scratch file, created on first spill; null if it cannot be created. */
+    @FunctionalInterface
+    private interface SpillTarget {
+        SpillFile get();
+    }
+
+    /**
+     * Pixels of one tile, in memory or deflated in a scratch file. A tile is written to the file
+     * once; after that, spilling it again only drops the pixels.
+     */
+    private static final class Tile {
+        private final int length;
+        private int[] pixels;
+        private SpillFile file;
+        private long offset;
+        private int stored;
+
+        Tile(int[] pixels) {
+            this.length = pixels.length;
+            this.pixels = pixels;
+        }
+
+        long bytes() {
+            return 4L * length;
+        }
+
+        synchronized boolean isResident() {
+            return pixels != null;
+        }
+
+        /** The pixels, read back from the scratch file first if they were spilled. */
+        synchronized int[] pixels() {
+            if (pixels == null) pixels = file.read(offset, stored, length);
+            return pixels;
+        }
+
+        /** Moves the pixels to the scratch file; false if there is no file to spill to. */
+        synchronized boolean spill(SpillTarget target) {
+            if (pixels == null) return true;
+            if (file == null) {
+                SpillFile f = target.get();
+                if (f == null) return false;
+                byte[] data = SpillFile.compress(pixels);
+                offset = f.append(data, this);
+                stored = data.length;
+                file = f;
+            }
+            pixels = null;
+            return true;
+        }
+
+        /** Copies the stored tile from {@code from} to {@code to}, if it is in {@code from}. */
+        synchronized void move(SpillFile from, SpillFile to) {
+            if (file != from) return;
+            offset = to.append(from.readStored(offset, stored), this);
+            file = to;
+        }
+    }
+
+    /**
+     * Append-only scratch file of deflated tiles. Each tile is stored as four byte planes
+     * (alpha, red, green, blue), each as differences to the previous byte, which deflate far
+     * better than packed pixels. The tiles stored are held weakly, so the space of those no
+     * longer referenced anywhere counts as dead.
+     */
+    private static final class SpillFile {
+        private final Path file;
+        private FileChannel channel;
+        private boolean closed;
+        private long end, dead;
+        private final ReferenceQueue<Tile> collected = new ReferenceQueue<>();
+        private final Set<Stored> stored = new HashSet<>();
+
+        SpillFile() throws IOException {
+            file = Files.createTempFile(TiledImageStore.scratchDirectory(), "visionforge-history-", ".bin");
+            file.toFile().deleteOnExit();
+            channel = open();
+        }
+
+        // Not DELETE_ON_CLOSE: an interrupt on a thread reading a tile (e.g. a cancelled render)
+        // closes the channel, and the spilled tiles must survive that, so it is reopened instead
+        private FileChannel open() throws IOException {
+            return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        synchronized long append(byte[] data, Tile tile) {
+            long at = end;
+            transfer(ByteBuffer.wrap(data), at, true);
+            end += data.length;
+            stored.add(new Stored(tile, data.length, collected));
+            return at;
+        }
+
+        int[] read(long at, int stored, int length) {
+            return decompress(readStored(at, stored), length);
+        }
+
+        byte[] readStored(long at, int stored) {
+            byte[] data = new byte[stored];
+            transfer(ByteBuffer.wrap(data), at, false);
+            return data;
+        }
+
+        /** Bytes of tiles that were collected since they were written. */
+        synchronized long deadBytes() {
+            for (Reference<? extends Tile> r; (r = collected.poll()) != null; )
+                if (stored.remove(r)) dead += ((Stored) r).bytes;
+            return dead;
+        }
+
+        synchronized long liveBytes() {
+            return end - deadBytes();
+        }
+
+        /** Copies every tile still referenced to {@code to}; this file can be closed afterwards. */
+        void moveTo(SpillFile to) {
+            List<Stored> live;
+            synchronized (this) {
+                live = new ArrayList<>(stored);
+            }
+            for (Stored r : live) {
+                Tile t = r.get();
+                if (t != null) t.move(this, to);
+            }
+        }
+
+        /**
+         * Writes or reads all of {@code buf} at {@code at}. If the channel gets closed under it by
+         * an interrupt (of this or another thread), the interrupt is held back, the channel reopened
+         * and the transfer retried, then the interrupt is restored for the caller's own checks.
+         */
+        private void transfer(ByteBuffer buf, long at, boolean write) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    FileChannel ch = channel();
+                    try {
+                        while (buf.hasRemaining()) {
+                            if (write) ch.write(buf, at + buf.position());
+                            else if (ch.read(buf, at + buf.position()) < 0) throw new IOException("Unexpected end of file");
+                        }
+                        return;
+                    } catch (ClosedChannelException e) {
+                        interrupted |= Thread.interrupted();
+                        reopen(ch, e);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not " + (write ? "write" : "read") + " history scratch file", e);
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized FileChannel channel() {
+            return channel;
+        }
+
+        private synchronized void reopen(FileChannel broken, ClosedChannelException cause) {
+            if (closed) throw new IllegalStateException("History scratch file is closed", cause);
+            if (channel != broken) return;
+            try {
+                channel = open();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not reopen history scratch file", e);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("[TileHistory] Could not delete history scratch file: " + e.getMessage());
+            }
+        }
+
+        /** Weak reference to a tile in the file, with the bytes it takes there. */
+        private static final class Stored extends WeakReference<Tile> {
+            final int bytes;
+
+            Stored(Tile tile, int bytes, ReferenceQueue<Tile> queue) {
+                super(tile, queue);
+                this.bytes = bytes;
+            }
+        }
+
+        static byte[] compress(int[] pixels) {
+            int n = pixels.length;
+            byte[] planes = new byte[4 * n];
+            for (int c = 0; c < 4; c++) {
+                int shift = 24 - 8 * c, prev = 0;
+                for (int i = 0, o = c * n; i < n; i++, o++) {
+                    int v = (pixels[i] >>> shift) & 0xFF;
+                    planes[o] = (byte) (v - prev);
+                    prev = v;
+                }
+            }
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(planes);
+                deflater.finish();
+                byte[] out = new byte[planes.length / 2 + 64];
+                int len = 0;
+                while (!deflater.finished()) {
+                    if (len == out.length) out = Arrays.copyOf(out, 2 * out.length);
+                    len += deflater.deflate(out, len, out.length - len);
+                }
+                return Arrays.copyOf(out, len);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        static int[] decompress(byte[] data, int length) {
+            byte[] planes = new byte[4 * length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data);
+                int n = 0;
+                while (n < planes.length && !inflater.finished()) {
+                    int got = inflater.inflate(planes, n, planes.length - n);
+                    if (got == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new DataFormatException("Truncated tile");
+                    n += got;
+                }
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException("Corrupt history scratch file", e));
+            } finally {
+                inflater.end();
+            }
+            int[] pixels = new int[length];
+            for (int c = 0; c < 4; c++) {
+                int shift = 24 - 8 * c, v = 0;
+                for (int i = 0, o = c * length; i < length; i++, o++) {
+                    v = (v + planes[o]) & 0xFF;
+                    pixels[i] |= v << shift;
+                }
+            }
+            return pixels;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package application.engine;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Full-resolution ARGB pixels outside the Java heap, stored as {@value #TILE} px square tiles
+ * (each tile's rows contiguous, 16 KB per tile) so a region touches only the memory of its own tiles.
+ * <p>
+ * Stores are allocated from a shared {@link Arena} while the total stays within the memory budget
+ * (twice the maximum heap, about half the physical RAM with the default {@code -Xmx}, or
+ * {@code -Dvisionforge.memory.budget=<MB>}); beyond it they spill to a scratch file mapped with
+ * {@link FileChannel#map} ({@code -Dvisionforge.scratch=<dir>}, default the temp directory). The OS then pages tiles in on demand, keeps the ones in use resident and writes
+ * cold ones back, so images larger than physical RAM can be edited with a bounded heap.
+ * <p>
+ * Kernels never see a store: windows are copied into heap {@link ArgbImage}s with bulk row copies
+ * and results copied back. {@link #close()} frees the memory (and deletes the scratch file) at once.
+ */
+public final class TiledImageStore implements AutoCloseable {
+
+    /** Tile edge, the same as the edit stack's render tiles. */
+    static final int TILE = 64;
+    private static final int TILE_SHIFT = 6;
+
+    private static final ValueLayout.OfInt PIXEL = ValueLayout.JAVA_INT;
+    private static final long MEMORY_BUDGET = memoryBudget();
+    private static final AtomicLong inMemoryBytes = new AtomicLong();
+    /** Pixels per strip when a decoder has to be read region by region. */
+    private static final int STRIP_PIXELS = 8 << 20;
+
+    private final int width;
+    private final int height;
+    private final int cols;
+    private final Arena arena;
+    private final MemorySegment pixels;
+    private final FileChannel scratch;
+
+    /** Allocates a blank (transparent) width x height store, in memory or spilled to a scratch file. */
+    public TiledImageStore(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.cols = (width + TILE - 1) / TILE;
+        long bytes = (long) cols * ((height + TILE - 1) / TILE) * TILE * TILE * PIXEL.byteSize();
+        this.arena = Arena.ofShared();
+        if (inMemoryBytes.addAndGet(bytes) <= MEMORY_BUDGET) {
+            this.scratch = null;
+            this.pixels = arena.allocate(bytes, PIXEL.byteAlignment());
+            return;
+        }
+        inMemoryBytes.addAndGet(-bytes);
+        try {
+            Path file = Files.createTempFile(scratchDirectory(), "visionforge-", ".tiles");
+            this.scratch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            // Sparse file: blocks are only written as tiles are
+            scratch.write(ByteBuffer.allocate(1), bytes - 1);
+            this.pixels = scratch.map(FileChannel.MapMode.READ_WRITE, 0, bytes, arena);
+        } catch (IOException e) {
+            arena.close();
+            throw new UncheckedIOException("Could not create image scratch file", e);
+        }
+    }
+
+    /** Store holding a copy of a JavaFX image, read one tile row at a time. */
+    public static TiledImageStore of(Image img) {
+        int w = (int) img.getWidth(), h = (int) img.getHeight();
+        PixelReader reader = img.getPixelReader();
+        if (reader == null)
+            throw new IllegalArgumentException("Image has no pixel reader (still loading?)");
+        TiledImageStore store = new TiledImageStore(w, h);
+        for (int y = 0; y < h; y += TILE) {
+            int y1 = Math.min(h, y + TILE);
+            ArgbImage band = ArgbImage.window(0, y, w, y1, w, h);
+            reader.getPixels(0, y, w, y1 - y, WritablePixelFormat.getIntArgbInstance(), band.pixels(), 0, w);
+            store.copyFrom(band, 0, y, w, y1);
+        }
+        return store;
+    }
+
+    /** Store holding a copy of a heap buffer. */
+    public static TiledImageStore of(ArgbImage src) {
+        TiledImageStore store = new TiledImageStore(src.getWidth(), src.getHeight());
+        store.copyFrom(src, 0, 0, src.getWidth(), src.getHeight());
+        return store;
+    }
+
+    /**
+     * Pixel size of an image file from its header, without decoding it.
+     * @return {width, height}, or null if no ImageIO reader recognises the file
+     */
+    public static int[] readSize(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = readerFor(in);
+            if (reader == null) return null;
+            try {
+                reader.setInput(in, true, true);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image file straight into a store, never holding more than a strip of it on the heap.
+     * 8-bit RGB and RGBA PNG and JPEG files are decoded in one pass directly into the tiles; other
+     * files (TIFF, grey, palette, 16-bit) are read strip by strip through source regions.
+     * @throws IOException if the file cannot be decoded
+     * @throws CancellationException if the monitor cancelled the read
+     */
+    public static TiledImageStore read(File file, RenderMonitor monitor) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = readerFor(in);
+            if (reader == null) throw new IIOException("Unsupported image format: " + file.getName());
+            try {
+                reader.setInput(in, false, true);
+                TiledImageStore store = new TiledImageStore(reader.getWidth(0), reader.getHeight(0));
+                try {
+                    if (!readDirect(reader, store, monitor)) readStrips(reader, store, monitor);
+                    if (monitor.isCancelled()) throw new CancellationException("Read cancelled");
+                    return store;
+                } catch (IOException | RuntimeException e) {
+                    store.close();
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static ImageReader readerFor(ImageInputStream in) {
+        if (in == null) return null;
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        return readers.hasNext() ? readers.next() : null;
+    }
+
+    /** One-pass decode into a BufferedImage whose raster is this store; false if the file does not suit it. */
+    private static boolean readDirect(ImageReader reader, TiledImageStore store, RenderMonitor monitor) throws IOException {
+        String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+        if (!format.equals("png") && !format.equals("jpeg")) return false;
+        ImageTypeSpecifier raw = reader.getRawImageType(0);
+        if (raw == null) return false;
+        ColorModel cm = raw.getColorModel();
+        SampleModel sm = raw.getSampleModel();
+        int bands = sm.getNumBands();
+        if (cm instanceof IndexColorModel || cm.isAlphaPremultiplied() || !cm.getColorSpace().isCS_sRGB()) return false;
+        if (!(bands == 3 && !cm.hasAlpha()) && !(bands == 4 && cm.hasAlpha())) return false;
+        for (int size : sm.getSampleSize())
+            if (size != 8) return false;
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(store.asBufferedImage(bands == 4));
+        IIOReadProgressListener progress = new ProgressListener(monitor);
+        reader.addIIOReadProgressListener(progress);
+        try {
+            reader.read(0, param);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // The decoder rejected the destination after all; fall back to strips
+            return false;
+        } finally {
+            reader.removeIIOReadProgressListener(progress);
+        }
+    }
+
+    private static void readStrips(ImageReader reader, TiledImageStore store, RenderMonitor monitor) throws IOException {
+        int w = store.width, h = store.height;
+        int strip = Math.max(TILE, STRIP_PIXELS / w / TILE * TILE);
+        ImageReadParam param = reader.getDefaultReadParam();
+        for (int y = 0; y < h && !monitor.isCancelled(); y += strip) {
+            int y1 = Math.min(h, y + strip);
+            param.setSourceRegion(new Rectangle(0, y, w, y1 - y));
+            BufferedImage rows = reader.read(0, param);
+            ArgbImage band = ArgbImage.window(0, y, w, y1, w, h);
+            rows.getRGB(0, 0, w, y1 - y, band.pixels(), 0, w);
+            store.copyFrom(band, 0, y, w, y1);
+            monitor.progress(y1, h);
+        }
+    }
+
+    /** Passes decoder progress to the monitor and aborts the decoder when the monitor cancels. */
+    private static final class ProgressListener implements IIOReadProgressListener {
+        private final RenderMonitor monitor;
+
+        ProgressListener(RenderMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            if (monitor.isCancelled()) source.abort();
+            else monitor.progress(Math.round(percentageDone * 10), 1000);
+        }
+
+        @Override public void sequenceStarted(ImageReader source, int minIndex) { }
+        @Override public void sequenceComplete(ImageReader source) { }
+        @Override public void imageStarted(ImageReader source, int imageIndex) { }
+        @Override public void imageComplete(ImageReader source) { }
+        @Override public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) { }
+        @Override public void thumbnailProgress(ImageReader source, float percentageDone) { }
+        @Override public void thumbnailComplete(ImageReader source) { }
+        @Override public void readAborted(ImageReader source) { }
+    }
+
+    /** Copies the window's own region of the image into it. */
+    public void copyTo(ArgbImage window) {
+        copyTo(window, window.originX(), window.originY(),
+                window.originX() + window.getWidth(), window.originY() + window.getHeight());
+    }
+
+    /**
+     * Copies the region [x0, x1) x [y0, y1) (full-image coordinates) into a heap buffer
+     * that covers it, either a window or a whole-image buffer.
+     */
+    public void copyTo(ArgbImage dst, int x0, int y0, int x1, int y1) {
+        int[] out = dst.pixels();
+        int dw = dst.getWidth(), ox = dst.originX(), oy = dst.originY();
+        for (int y = y0; y < y1; y++)
+            for (int x = x0, o = (y - oy) * dw + x0 - ox; x < x1; ) {
+                int n = Math.min(x1, (x | (TILE - 1)) + 1) - x;
+                MemorySegment.copy(pixels, PIXEL, offset(x, y), out, o, n);
+                x += n;
+                o += n;
+            }
+    }
+
+    /** Copies the region [x0, x1) x [y0, y1) (full-image coordinates) of a heap buffer that covers it into the store. */
+    public void copyFrom(ArgbImage src, int x0, int y0, int x1, int y1) {
+        int[] in = src.pixels();
+        int sw = src.getWidth(), ox = src.originX(), oy = src.originY();
+        for (int y = y0; y < y1; y++)
+            for (int x = x0, i = (y - oy) * sw + x0 - ox; x < x1; ) {
+                int n = Math.min(x1, (x | (TILE - 1)) + 1) - x;
+                MemorySegment.copy(in, i, pixels, PIXEL, offset(x, y), n);
+                x += n;
+                i += n;
+            }
+    }
+
+    /** New heap window holding the region [x0, x1) x [y0, y1). */
+    public ArgbImage read(int x0, int y0, int x1, int y1) {
+        ArgbImage window = ArgbImage.window(x0, y0, x1, y1, width, height);
+        copyTo(window);
+        return window;
+    }
+
+    public WritableImage toImage() {
+        return toImage(0, 0, width, height);
+    }
+
+    /** Writes the region [x0, x1) x [y0, y1) into a new WritableImage of that size (e.g. the visible viewport). */
+    public WritableImage toImage(int x0, int y0, int x1, int y1) {
+        return read(x0, y0, x1, y1).toImage();
+    }
+
+    /**
+     * The store as a BufferedImage (no copy), e.g. for ImageIO. Pixels are read and written
+     * one at a time through the raster, so it suits sequential encoders and decoders.
+     * @param alpha false for a 3-band RGB view whose writes leave pixels opaque
+     */
+    public BufferedImage asBufferedImage(boolean alpha) {
+        int[] masks = alpha ? new int[]{0xFF0000, 0xFF00, 0xFF, 0xFF000000} : new int[]{0xFF0000, 0xFF00, 0xFF};
+        DirectColorModel cm = alpha ? new DirectColorModel(32, masks[0], masks[1], masks[2], masks[3])
+                : new DirectColorModel(24, masks[0], masks[1], masks[2]);
+        SampleModel sm = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, masks);
+        WritableRaster raster = Raster.createWritableRaster(sm, new Pixels(alpha ? 0 : 0xFF000000), null);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    /** The store's pixels as a DataBuffer of row-major packed ARGB elements. */
+    private final class Pixels extends DataBuffer {
+        private final int fill;
+
+        Pixels(int fill) {
+            super(DataBuffer.TYPE_INT, width * height);
+            this.fill = fill;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(PIXEL, offset(i % width, i / width));
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            pixels.set(PIXEL, offset(i % width, i / width), value | fill);
+        }
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** Bytes held by this store, in memory or in its scratch file. */
+    public long byteSize() {
+        return pixels.byteSize();
+    }
+
+    /** True if the store lives in a memory-mapped scratch file rather than in memory. */
+    public boolean isSpilled() {
+        return scratch != null;
+    }
+
+    public boolean isOpen() {
+        return arena.scope().isAlive();
+    }
+
+    /**
+     * Frees the pixels immediately and deletes the scratch file, if any.
+     * Any later access throws {@link IllegalStateException}; closing twice is harmless.
+     */
+    @Override
+    public synchronized void close() {
+        if (!isOpen()) return;
+        long bytes = pixels.byteSize();
+        arena.close();
+        if (scratch == null) {
+            inMemoryBytes.addAndGet(-bytes);
+            return;
+        }
+        try {
+            scratch.close();
+        } catch (IOException e) {
+            System.err.println("[TiledImageStore] Could not delete scratch file: " + e.getMessage());
+        }
+    }
+
+    /** Byte offset of pixel (x, y): tiles in row-major order, then rows within the tile. */
+    private long offset(int x, int y) {
+        long tile = (long) (y >> TILE_SHIFT) * cols + (x >> TILE_SHIFT);
+        return ((tile << (2 * TILE_SHIFT)) + ((y & (TILE - 1)) << TILE_SHIFT) + (x & (TILE - 1))) * PIXEL.byteSize();
+    }
+
+    private static long memoryBudget() {
+        String mb = System.getProperty("visionforge.memory.budget");
+        if (mb != null) {
+            try {
+                return Long.parseLong(mb.trim()) << 20;
+            } catch (NumberFormatException e) {
+                System.err.println("[TiledImageStore] Ignoring visionforge.memory.budget=" + mb);
+            }
+        }
+        // The default heap limit is a quarter of the physical RAM; physical RAM itself is only
+        // visible through jdk.management, which the project does not depend on
+        long heap = Runtime.getRuntime().maxMemory();
+        return heap == Long.MAX_VALUE ? 2L << 30 : 2 * heap;
+    }
+
+    /** Directory for scratch files: the visionforge.scratch property, or the temp directory. */
+    static Path scratchDirectory() throws IOException {
+        Path dir = Path.of(System.getProperty("visionforge.scratch", System.getProperty("java.io.tmpdir")));
+        Files.createDirectories(dir);
+        return dir;
+    }
+}
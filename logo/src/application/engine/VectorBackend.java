@@ -0,0 +1,127 @@
+package application.engine;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link SimdBackend} on the incubating Vector API. Only referenced reflectively from
+ * {@link Simd}, so the rest of the engine loads fine without the module.
+ */
+final class VectorBackend implements SimdBackend {
+
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public int lanes() {
+        return I.length();
+    }
+
+    @Override
+    public void mulClamp(int[] in, int[] out, int from, int to, int rq, int gq, int bq) {
+        int i = from, bound = from + I.loopBound(to - from);
+        for (; i < bound; i += I.length()) {
+            IntVector p = IntVector.fromArray(I, in, i);
+            IntVector r = p.lanewise(VectorOperators.LSHR, 16).and(0xFF).mul(rq).add(128).lanewise(VectorOperators.LSHR, 8).min(255);
+            IntVector g = p.lanewise(VectorOperators.LSHR, 8).and(0xFF).mul(gq).add(128).lanewise(VectorOperators.LSHR, 8).min(255);
+            IntVector b = p.and(0xFF).mul(bq).add(128).lanewise(VectorOperators.LSHR, 8).min(255);
+            pack(p, r, g, b).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            int p = in[i];
+            out[i] = (p & 0xFF000000)
+                    | (Math.min((((p >> 16) & 0xFF) * rq + 128) >> 8, 255) << 16)
+                    | (Math.min((((p >> 8) & 0xFF) * gq + 128) >> 8, 255) << 8)
+                    | Math.min(((p & 0xFF) * bq + 128) >> 8, 255);
+        }
+    }
+
+    @Override
+    public void colorMatrix(int[] in, int[] out, int from, int to, float[] m) {
+        int lanes = Math.min(I.length(), F.length());
+        int i = from, bound = from + (to - from) / lanes * lanes;
+        if (I.length() == F.length()) {
+            for (; i < bound; i += lanes) {
+                IntVector p = IntVector.fromArray(I, in, i);
+                FloatVector r = (FloatVector) p.lanewise(VectorOperators.LSHR, 16).and(0xFF).convert(VectorOperators.I2F, 0);
+                FloatVector g = (FloatVector) p.lanewise(VectorOperators.LSHR, 8).and(0xFF).convert(VectorOperators.I2F, 0);
+                FloatVector b = (FloatVector) p.and(0xFF).convert(VectorOperators.I2F, 0);
+                pack(p, row(r, g, b, m, 0), row(r, g, b, m, 4), row(r, g, b, m, 8)).intoArray(out, i);
+            }
+        }
+        ColorMatrix scalar = new ColorMatrix(m);
+        for (; i < to; i++) out[i] = scalar.apply(in[i]);
+    }
+
+    private static IntVector row(FloatVector r, FloatVector g, FloatVector b, float[] m, int o) {
+        // Same evaluation order as ColorMatrix.apply so results match bit for bit
+        FloatVector v = r.mul(m[o]).add(g.mul(m[o + 1])).add(b.mul(m[o + 2])).add(m[o + 3]).add(0.5f);
+        IntVector n = (IntVector) v.convert(VectorOperators.F2I, 0);
+        return n.max(0).min(255);
+    }
+
+    @Override
+    public void lut(int[] in, int[] out, int from, int to, int[] rt, int[] gt, int[] bt) {
+        int[] idx = new int[I.length()];
+        int i = from, bound = from + I.loopBound(to - from);
+        for (; i < bound; i += I.length()) {
+            IntVector p = IntVector.fromArray(I, in, i);
+            p.lanewise(VectorOperators.LSHR, 16).and(0xFF).intoArray(idx, 0);
+            IntVector r = IntVector.fromArray(I, rt, 0, idx, 0);
+            p.lanewise(VectorOperators.LSHR, 8).and(0xFF).intoArray(idx, 0);
+            IntVector g = IntVector.fromArray(I, gt, 0, idx, 0);
+            p.and(0xFF).intoArray(idx, 0);
+            IntVector b = IntVector.fromArray(I, bt, 0, idx, 0);
+            pack(p, r, g, b).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            int p = in[i];
+            out[i] = (p & 0xFF000000) | (rt[(p >> 16) & 0xFF] << 16) | (gt[(p >> 8) & 0xFF] << 8) | bt[p & 0xFF];
+        }
+    }
+
+    @Override
+    public void convolve3x3(int[] in, int[] out, int from, int to, int w, int[] taps, int shift) {
+        int[] offs = {-w - 1, -w, -w + 1, -1, 0, 1, w - 1, w, w + 1};
+        int half = 1 << (shift - 1);
+        int i = from, bound = from + I.loopBound(to - from);
+        for (; i < bound; i += I.length()) {
+            IntVector r = IntVector.zero(I), g = IntVector.zero(I), b = IntVector.zero(I);
+            for (int t = 0; t < 9; t++) {
+                int k = taps[t];
+                if (k == 0) continue;
+                IntVector p = IntVector.fromArray(I, in, i + offs[t]);
+                r = r.add(p.lanewise(VectorOperators.LSHR, 16).and(0xFF).mul(k));
+                g = g.add(p.lanewise(VectorOperators.LSHR, 8).and(0xFF).mul(k));
+                b = b.add(p.and(0xFF).mul(k));
+            }
+            IntVector centre = IntVector.fromArray(I, in, i);
+            pack(centre,
+                    r.add(half).lanewise(VectorOperators.ASHR, shift).max(0).min(255),
+                    g.add(half).lanewise(VectorOperators.ASHR, shift).max(0).min(255),
+                    b.add(half).lanewise(VectorOperators.ASHR, shift).max(0).min(255)).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            int r = 0, g = 0, b = 0;
+            for (int t = 0; t < 9; t++) {
+                int p = in[i + offs[t]], k = taps[t];
+                r += k * ((p >> 16) & 0xFF);
+                g += k * ((p >> 8) & 0xFF);
+                b += k * (p & 0xFF);
+            }
+            out[i] = (in[i] & 0xFF000000) | (clamp((r + half) >> shift) << 16)
+                    | (clamp((g + half) >> shift) << 8) | clamp((b + half) >> shift);
+        }
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /** Keeps the alpha of {@code src} and packs three 0..255 channel vectors. */
+    private static IntVector pack(IntVector src, IntVector r, IntVector g, IntVector b) {
+        return src.and(0xFF000000).or(r.lanewise(VectorOperators.LSHL, 16)).or(g.lanewise(VectorOperators.LSHL, 8)).or(b);
+    }
+}
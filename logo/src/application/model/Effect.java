@@ -10,6 +10,7 @@ public class Effect {
     private String category; // e.g., "Color", "Blur", "Lighting"
     private double intensity; // 0.0 to 1.0
     private boolean enabled;
+    private double[] parameters = new double[0]; // measured settings, e.g. auto levels ranges
 
     public Effect(String name, String category, double intensity) {
         this.name = name;
@@ -31,6 +32,9 @@ public class Effect {
     public boolean isEnabled() { return enabled; }
     public void setEnabled(boolean enabled) { this.enabled = enabled; }
 
+    public double[] getParameters() { return parameters.clone(); }
+    public void setParameters(double[] parameters) { this.parameters = parameters.clone(); }
+
     @Override
     public String toString() {
         return String.format("%s (%s) - %.2f%%", name, category, intensity * 100);